@@ -11,6 +11,12 @@ import android.preference.PreferenceManager;
 
 import dagger.Module;
 import dagger.Provides;
+import eu.darken.bluemusic.main.core.audio.AudioBackend;
+import eu.darken.bluemusic.main.core.audio.AudioManagerBackend;
+import eu.darken.bluemusic.main.core.audio.StreamHelper;
+import eu.darken.bluemusic.main.core.port.Clock;
+import eu.darken.bluemusic.main.core.trace.ConnectTracer;
+import eu.darken.bluemusic.main.core.trace.EventTraceRecorder;
 
 
 @Module
@@ -34,6 +40,35 @@ public class AndroidModule {
         return (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
     }
 
+    @Provides
+    @AppComponent.Scope
+    AudioBackend audioBackend(AudioManager audioManager) {
+        return new AudioManagerBackend(audioManager);
+    }
+
+    @Provides
+    @AppComponent.Scope
+    StreamHelper streamHelper(AudioBackend audioBackend, ConnectTracer connectTracer) {
+        return new StreamHelper(audioBackend, connectTracer);
+    }
+
+    @Provides
+    Clock clock() {
+        return Clock.SYSTEM;
+    }
+
+    @Provides
+    @AppComponent.Scope
+    ConnectTracer connectTracer() {
+        return new ConnectTracer();
+    }
+
+    @Provides
+    @AppComponent.Scope
+    EventTraceRecorder eventTraceRecorder() {
+        return new EventTraceRecorder();
+    }
+
     @Provides
     @AppComponent.Scope
     PowerManager powerManager(Context context) {
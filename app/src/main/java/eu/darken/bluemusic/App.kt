@@ -8,8 +8,10 @@ import android.content.BroadcastReceiver
 import android.content.pm.PackageManager
 import androidx.core.app.ActivityCompat
 import eu.darken.bluemusic.main.core.database.MigrationTool
+import eu.darken.bluemusic.main.core.port.CoreLog
 import eu.darken.bluemusic.settings.core.Settings
 import eu.darken.bluemusic.util.ApiHelper
+import eu.darken.bluemusic.util.TimberLogger
 import eu.darken.mvpbakery.injection.ComponentSource
 import eu.darken.mvpbakery.injection.ManualInjector
 import eu.darken.mvpbakery.injection.activity.HasManualActivityInjector
@@ -33,6 +35,7 @@ class App : Application(), HasManualActivityInjector, HasManualBroadcastReceiver
     override fun onCreate() {
         super.onCreate()
         if (BuildConfig.DEBUG) Timber.plant(DebugTree())
+        CoreLog.logger = TimberLogger()
 
         DaggerAppComponent.builder()
                 .application(this)
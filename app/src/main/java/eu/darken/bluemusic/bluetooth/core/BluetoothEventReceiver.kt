@@ -7,9 +7,11 @@ import android.content.Intent
 import eu.darken.bluemusic.main.core.audio.AudioStream
 import eu.darken.bluemusic.main.core.audio.StreamHelper
 import eu.darken.bluemusic.main.core.database.DeviceManager
+import eu.darken.bluemusic.main.core.database.ManagedAddressCache
 import eu.darken.bluemusic.main.core.database.ManagedDevice
 import eu.darken.bluemusic.main.core.database.RealmSource
 import eu.darken.bluemusic.main.core.service.ServiceHelper
+import eu.darken.bluemusic.main.core.trace.ConnectTracer
 import eu.darken.bluemusic.settings.core.Settings
 import eu.darken.mvpbakery.injection.broadcastreceiver.HasManualBroadcastReceiverInjector
 import io.reactivex.rxjava3.core.Single
@@ -34,10 +36,13 @@ class BluetoothEventReceiver : BroadcastReceiver() {
     @Inject lateinit var realmSource: RealmSource
     @Inject lateinit var streamHelper: StreamHelper
     @Inject lateinit var fakeSpeakerDevice: FakeSpeakerDevice
+    @Inject lateinit var connectTracer: ConnectTracer
 
     @Inject lateinit var deviceManager: DeviceManager
 
     override fun onReceive(context: Context, intent: Intent) {
+        // Same time base as ConnectTracer.now(), taken before injection so that is part of the trace
+        val receivedAt = System.nanoTime()
         Timber.v("onReceive(%s, %s)", context, intent)
 
         if (!VALID_ACTIONS.contains(intent.action ?: "")) {
@@ -45,6 +50,13 @@ class BluetoothEventReceiver : BroadcastReceiver() {
             return
         }
 
+        // Most ACL events are keyboards, mice and the like, check them before setting anything up
+        val address = intent.getParcelableExtra<BluetoothDevice>(BluetoothDevice.EXTRA_DEVICE)?.address
+        if (address != null && !ManagedAddressCache(context).isManaged(address)) {
+            Timber.d("Event for un-managed device %s, ignoring it.", address)
+            return
+        }
+
         (context.applicationContext as HasManualBroadcastReceiverInjector).broadcastReceiverInjector().inject(this)
 
         if (!settings.isEnabled) {
@@ -62,7 +74,10 @@ class BluetoothEventReceiver : BroadcastReceiver() {
                     }
                 }
                 .subscribeOn(Schedulers.io())
-                .doOnSuccess { Timber.d("New event: %s", it) }
+                .doOnSuccess {
+                    Timber.d("New event: %s", it)
+                    if (it.type == SourceDevice.Event.Type.CONNECTED) connectTracer.begin(it.address, receivedAt)
+                }
                 .flatMap { event -> return@flatMap deviceManager.devices().firstOrError().map { Pair(event, it) } }
                 .doOnSuccess { (_, devices) -> Timber.d("Current devices: %s", devices) }
                 .filter { (event, devices) ->
@@ -129,6 +144,7 @@ class BluetoothEventReceiver : BroadcastReceiver() {
                 .doFinally(goAsync::finish)
                 .subscribe(
                         { (event, _) ->
+                            connectTracer.record(ConnectTracer.Stage.RECEIVER, event.address, receivedAt)
                             val service = ServiceHelper.getIntent(context)
                             service.putExtra(EXTRA_DEVICE_EVENT, event)
                             val componentName = ServiceHelper.startService(context, service)
@@ -11,7 +11,19 @@ public interface BluetoothSource {
 
     Observable<Map<String, SourceDevice>> connectedDevices();
 
+    /**
+     * Emits each change of {@link #connectedDevices()}, together with the new snapshot.
+     */
+    Observable<DeviceDiff> connectedDeviceChanges();
+
     Observable<Boolean> isEnabled();
 
     Single<Map<String, SourceDevice>> reloadConnectedDevices();
+
+    /**
+     * Reloads the connected devices until the event's device is shown as connected (or disconnected).
+     * Reloads are triggered by profile connection changes, with a backoff poll as fallback.
+     * Concurrent waits for the same device and state share one check, which gives up after about a minute.
+     */
+    Single<Map<String, SourceDevice>> awaitConnectionState(SourceDevice.Event event);
 }
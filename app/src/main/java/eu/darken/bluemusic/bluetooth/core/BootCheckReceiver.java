@@ -5,12 +5,13 @@ import android.content.Context;
 import android.content.Intent;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
+import androidx.core.util.Pair;
 import eu.darken.bluemusic.main.core.database.RealmSource;
 import eu.darken.bluemusic.settings.core.Settings;
 import eu.darken.bluemusic.util.EventGenerator;
@@ -53,14 +54,15 @@ public class BootCheckReceiver extends BroadcastReceiver {
                 .map(ArrayList::new)
                 .firstOrError()
                 .timeout(8, TimeUnit.SECONDS, Single.just(new ArrayList<>()))
+                .flatMap(devices -> realmSource.getManagedAddresses().map(managed -> new Pair<>(devices, managed)))
                 .doFinally(pendingResult::finish)
-                .subscribe(devices -> {
+                .subscribe(devicesAndManaged -> {
+                    final List<SourceDevice> devices = devicesAndManaged.first;
                     Timber.i("Connected devices: %s", devices);
 
-                    final Set<String> managedAddrs = realmSource.getManagedAddresses().blockingGet();
                     boolean hasManagedConnetedDev = false;
                     for (SourceDevice device : devices) {
-                        if (managedAddrs.contains(device.getAddress())) {
+                        if (devicesAndManaged.second.contains(device.getAddress())) {
                             hasManagedConnetedDev = true;
                         }
                     }
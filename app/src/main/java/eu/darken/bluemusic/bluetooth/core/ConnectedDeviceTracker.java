@@ -0,0 +1,103 @@
+package eu.darken.bluemusic.bluetooth.core;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Keeps track of which device is connected on which profile.
+ * Profile state broadcasts are applied as deltas, a full query of all profiles is applied via {@link #reconcile(Map)}.
+ * Device wrappers are kept for as long as the device stays connected.
+ */
+class ConnectedDeviceTracker {
+    private final Map<String, Integer> profileMasks = new HashMap<>();
+    private final Map<String, SourceDevice> devices = new HashMap<>();
+
+    /**
+     * @return true if the set of connected devices changed
+     */
+    synchronized boolean onProfileConnected(int profile, BluetoothDevice device) {
+        final String address = device.getAddress();
+        final Integer mask = profileMasks.get(address);
+        profileMasks.put(address, (mask != null ? mask : 0) | bit(profile));
+        if (mask != null) return false;
+
+        devices.put(address, new SourceDeviceWrapper(device));
+        Timber.v("%s connected on profile %d", device, profile);
+        return true;
+    }
+
+    synchronized boolean onProfileDisconnected(int profile, String address) {
+        final Integer mask = profileMasks.get(address);
+        if (mask == null) return false;
+
+        final int newMask = mask & ~bit(profile);
+        if (newMask != 0) {
+            profileMasks.put(address, newMask);
+            return false;
+        }
+        Timber.v("%s disconnected from its last profile %d", address, profile);
+        return onDeviceDisconnected(address);
+    }
+
+    synchronized boolean onDeviceDisconnected(String address) {
+        profileMasks.remove(address);
+        return devices.remove(address) != null;
+    }
+
+    /**
+     * Replaces the known state of each queried profile with the query result.
+     */
+    synchronized boolean reconcile(Map<Integer, List<BluetoothDevice>> profileDevices) {
+        int queriedMask = 0;
+        for (Integer profile : profileDevices.keySet()) queriedMask |= bit(profile);
+
+        boolean changed = false;
+        for (Map.Entry<String, Integer> entry : profileMasks.entrySet()) {
+            entry.setValue(entry.getValue() & ~queriedMask);
+        }
+
+        for (Map.Entry<Integer, List<BluetoothDevice>> entry : profileDevices.entrySet()) {
+            final int profileBit = bit(entry.getKey());
+            for (BluetoothDevice device : entry.getValue()) {
+                final String address = device.getAddress();
+                final Integer mask = profileMasks.get(address);
+                profileMasks.put(address, (mask != null ? mask : 0) | profileBit);
+                if (mask == null) {
+                    devices.put(address, new SourceDeviceWrapper(device));
+                    changed = true;
+                }
+            }
+        }
+
+        final Iterator<Map.Entry<String, Integer>> iterator = profileMasks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Integer> entry = iterator.next();
+            if (entry.getValue() != 0) continue;
+            iterator.remove();
+            devices.remove(entry.getKey());
+            changed = true;
+        }
+        return changed;
+    }
+
+    synchronized boolean clear() {
+        final boolean changed = !devices.isEmpty();
+        profileMasks.clear();
+        devices.clear();
+        return changed;
+    }
+
+    synchronized Map<String, SourceDevice> getDevices() {
+        return new HashMap<>(devices);
+    }
+
+    private static int bit(int profile) {
+        return 1 << profile;
+    }
+}
@@ -0,0 +1,69 @@
+package eu.darken.bluemusic.bluetooth.core;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A change of the connected devices, together with the snapshot after the change.
+ */
+public class DeviceDiff {
+    private final Map<String, SourceDevice> snapshot;
+    private final Set<String> added;
+    private final Set<String> removed;
+
+    private DeviceDiff(Map<String, SourceDevice> snapshot, Set<String> added, Set<String> removed) {
+        this.snapshot = snapshot;
+        this.added = added;
+        this.removed = removed;
+    }
+
+    @NonNull
+    public Map<String, SourceDevice> getSnapshot() {
+        return snapshot;
+    }
+
+    @NonNull
+    public Set<String> getAdded() {
+        return added;
+    }
+
+    @NonNull
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    static DeviceDiff between(@Nullable Map<String, SourceDevice> before, Map<String, SourceDevice> after) {
+        if (before == null) before = Collections.emptyMap();
+
+        Set<String> added = Collections.emptySet();
+        for (String address : after.keySet()) {
+            if (before.containsKey(address)) continue;
+            if (added.isEmpty()) added = new HashSet<>();
+            added.add(address);
+        }
+
+        Set<String> removed = Collections.emptySet();
+        for (String address : before.keySet()) {
+            if (after.containsKey(address)) continue;
+            if (removed.isEmpty()) removed = new HashSet<>();
+            removed.add(address);
+        }
+
+        return new DeviceDiff(after, added, removed);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "DeviceDiff(added=%s, removed=%s, connected=%d)", added, removed, snapshot.size());
+    }
+}
@@ -6,6 +6,7 @@ import dagger.Module;
 import dagger.Provides;
 import eu.darken.bluemusic.AppComponent;
 import eu.darken.bluemusic.main.core.database.RealmSource;
+import eu.darken.bluemusic.main.core.trace.ConnectTracer;
 import eu.darken.bluemusic.settings.core.Settings;
 
 
@@ -13,7 +14,7 @@ import eu.darken.bluemusic.settings.core.Settings;
 public class DeviceSourceModule {
     @Provides
     @AppComponent.Scope
-    BluetoothSource provideDeviceSource(Context context, Settings settings, RealmSource realmSource, FakeSpeakerDevice fakeSpeakerDevice) {
-        return new LiveBluetoothSource(context, settings, realmSource, fakeSpeakerDevice);
+    BluetoothSource provideDeviceSource(Context context, Settings settings, RealmSource realmSource, FakeSpeakerDevice fakeSpeakerDevice, ConnectTracer connectTracer) {
+        return new LiveBluetoothSource(context, settings, realmSource, fakeSpeakerDevice, connectTracer);
     }
 }
@@ -2,8 +2,10 @@ package eu.darken.bluemusic.bluetooth.core;
 
 
 import android.Manifest;
+import android.bluetooth.BluetoothA2dp;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothHeadset;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
 import android.content.BroadcastReceiver;
@@ -19,49 +21,59 @@ import android.os.ParcelUuid;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import androidx.core.app.ActivityCompat;
 import eu.darken.bluemusic.main.core.database.RealmSource;
 import eu.darken.bluemusic.main.core.service.MissingDeviceException;
+import eu.darken.bluemusic.main.core.trace.ConnectTracer;
 import eu.darken.bluemusic.settings.core.Settings;
 import eu.darken.bluemusic.util.ApiHelper;
 import eu.darken.bluemusic.util.Check;
-import eu.darken.bluemusic.util.ui.RetryWithDelay;
 import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.core.Single;
-import io.reactivex.rxjava3.core.SingleOnSubscribe;
-import io.reactivex.rxjava3.core.SingleSource;
 import io.reactivex.rxjava3.schedulers.Schedulers;
 import io.reactivex.rxjava3.subjects.BehaviorSubject;
+import io.reactivex.rxjava3.subjects.PublishSubject;
 import timber.log.Timber;
 
 class LiveBluetoothSource implements BluetoothSource {
+    private static final long READINESS_POLL_INITIAL_DELAY = 250;
+    private static final long READINESS_POLL_MAX_DELAY = 8000;
+    private static final long READINESS_TIMEOUT = 60 * 1000;
 
     private final Settings settings;
     private final RealmSource realmSource;
     private final Context context;
+    private final ConnectTracer connectTracer;
 
     private final SourceDevice fakeSpeakerDevice;
     private final BehaviorSubject<Map<String, SourceDevice>> pairedPublisher = BehaviorSubject.create();
     private final BehaviorSubject<Map<String, SourceDevice>> connectedPublisher = BehaviorSubject.create();
     private final BehaviorSubject<Boolean> adapterEnabledPublisher = BehaviorSubject.create();
+    private final PublishSubject<DeviceDiff> connectedDiffPublisher = PublishSubject.create();
+    private final ConnectedDeviceTracker connectedTracker = new ConnectedDeviceTracker();
     private final BluetoothManager manager;
     private final BluetoothAdapter adapter;
+    private final ProfileProxyCache proxyCache;
+    // Guarded by itself
+    private final Map<String, Single<Map<String, SourceDevice>>> readinessChecks = new HashMap<>();
 
-    LiveBluetoothSource(Context context, Settings settings, RealmSource realmSource, FakeSpeakerDevice fakeSpeakerDevice) {
+    LiveBluetoothSource(Context context, Settings settings, RealmSource realmSource, FakeSpeakerDevice fakeSpeakerDevice, ConnectTracer connectTracer) {
         this.context = context;
+        this.connectTracer = connectTracer;
         this.settings = settings;
         this.realmSource = realmSource;
         this.fakeSpeakerDevice = fakeSpeakerDevice;
         manager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
         Check.notNull(manager);
         adapter = manager.getAdapter();
+        proxyCache = new ProfileProxyCache(context, adapter);
         if (adapter == null) {
             Timber.e("BluetoothAdapter is null!");
             adapterEnabledPublisher.onNext(false);
@@ -74,6 +86,8 @@ class LiveBluetoothSource implements BluetoothSource {
         filter.addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
         filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
         filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+        filter.addAction(BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED);
+        filter.addAction(BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED);
 
         HandlerThread handlerThread = new HandlerThread("BluetoothEventReceiver");
         handlerThread.start();
@@ -96,8 +110,35 @@ class LiveBluetoothSource implements BluetoothSource {
                         updatePaired();
                         break;
                     case BluetoothAdapter.ACTION_STATE_CHANGED:
+                        if (!adapter.isEnabled()) proxyCache.release();
                         adapterEnabledPublisher.onNext(adapter.isEnabled());
                         updatePaired();
+                        if (adapter.isEnabled()) {
+                            reloadConnectedDevices().subscribe(
+                                    devices -> Timber.d("Reconciled connected devices after adapter state change."),
+                                    e -> Timber.e(e, "Failed to reconcile connected devices.")
+                            );
+                        } else if (connectedTracker.clear()) {
+                            publishConnectedAsync();
+                        }
+                        break;
+                    case BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED:
+                    case BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED:
+                        final BluetoothDevice profileDevice = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                        if (profileDevice == null) {
+                            Timber.w("Profile state change without device: %s", intent);
+                            return;
+                        }
+                        final int profile = BluetoothA2dp.ACTION_CONNECTION_STATE_CHANGED.equals(action) ? BluetoothProfile.A2DP : BluetoothProfile.HEADSET;
+                        final int state = intent.getIntExtra(BluetoothProfile.EXTRA_STATE, -1);
+                        Timber.d("Profile %d state of %s changed to %d", profile, profileDevice, state);
+                        boolean changed = false;
+                        if (state == BluetoothProfile.STATE_CONNECTED) {
+                            changed = connectedTracker.onProfileConnected(profile, profileDevice);
+                        } else if (state == BluetoothProfile.STATE_DISCONNECTED) {
+                            changed = connectedTracker.onProfileDisconnected(profile, profileDevice.getAddress());
+                        }
+                        if (changed) publishConnectedAsync();
                         break;
                     case BluetoothDevice.ACTION_ACL_CONNECTED:
                     case BluetoothDevice.ACTION_ACL_DISCONNECTED:
@@ -106,20 +147,12 @@ class LiveBluetoothSource implements BluetoothSource {
                             Timber.e("Bad event intent: %s", intent);
                             return;
                         }
-                        reloadConnectedDevices()
+                        if (event.getType() == SourceDevice.Event.Type.DISCONNECTED && connectedTracker.onDeviceDisconnected(event.getAddress())) {
+                            publishConnectedAsync();
+                        }
+                        awaitConnectionState(event)
                                 .doOnSubscribe(d -> Timber.i("Event based reloading until device is completely connected: %s", event))
                                 .subscribeOn(Schedulers.io())
-                                .map(deviceMap -> {
-                                    if (event.getType() == SourceDevice.Event.Type.CONNECTED && !deviceMap.containsKey(event.getAddress())) {
-                                        Timber.d("%s has connected, but is not shown as connected, retrying.", event);
-                                        throw new MissingDeviceException(event);
-                                    } else if (event.getType() == SourceDevice.Event.Type.DISCONNECTED && deviceMap.containsKey(event.getAddress())) {
-                                        Timber.d("%s disconnected, but is still shown as connected, retrying.", event);
-                                        throw new MissingDeviceException(event);
-                                    }
-                                    return deviceMap;
-                                })
-                                .retryWhen(new RetryWithDelay(60, 1000))
                                 .subscribe((devices, throwable) -> {
                                     if (throwable != null) Timber.e(throwable, "Failed to get initial device info for %s.", event);
                                 });
@@ -205,58 +238,120 @@ class LiveBluetoothSource implements BluetoothSource {
 
         return Single
                 .defer(() -> {
-                    final List<SingleSource<List<BluetoothDevice>>> profiles = new ArrayList<>();
+                    final List<Integer> profiles = new ArrayList<>();
+                    if (!settings.isGATTExcluded()) profiles.add(BluetoothProfile.GATT);
+                    if (!settings.isGATTServerExcluded()) profiles.add(BluetoothProfile.GATT_SERVER);
+                    profiles.add(BluetoothProfile.HEADSET);
+                    profiles.add(BluetoothProfile.A2DP);
+                    if (!settings.isHealthDeviceExcluded()) profiles.add(BluetoothProfile.HEALTH);
+
+                    return Observable.fromIterable(profiles)
+                            .concatMapSingle(profile -> getDevicesForProfile(profile).map(devices -> new ProfileDevices(profile, devices)))
+                            .toMap(profileDevices -> profileDevices.profile, profileDevices -> profileDevices.devices)
+                            .flatMap(profileDevices -> {
+                                if (connectedTracker.reconcile(profileDevices) || connectedPublisher.getValue() == null) {
+                                    return publishConnected();
+                                }
+                                return Single.just(connectedPublisher.getValue());
+                            });
+                });
+    }
 
-                    if (!settings.isGATTExcluded()) {
-                        profiles.add(LiveBluetoothSource.this.getDevicesForProfile(BluetoothProfile.GATT));
-                    }
-                    if (!settings.isGATTServerExcluded()) {
-                        profiles.add(LiveBluetoothSource.this.getDevicesForProfile(BluetoothProfile.GATT_SERVER));
-                    }
+    /**
+     * Publishes the tracker's current state once the managed addresses are known.
+     */
+    private Single<Map<String, SourceDevice>> publishConnected() {
+        return realmSource.getManagedAddresses().map(this::publishConnected);
+    }
 
-                    profiles.add(LiveBluetoothSource.this.getDevicesForProfile(BluetoothProfile.HEADSET));
-                    profiles.add(LiveBluetoothSource.this.getDevicesForProfile(BluetoothProfile.A2DP));
+    private void publishConnectedAsync() {
+        publishConnected().subscribe(
+                devices -> Timber.v("Published connected devices."),
+                e -> Timber.e(e, "Failed to publish connected devices.")
+        );
+    }
 
-                    if (!settings.isHealthDeviceExcluded()) {
-                        profiles.add(LiveBluetoothSource.this.getDevicesForProfile(BluetoothProfile.HEALTH));
-                    }
+    private synchronized Map<String, SourceDevice> publishConnected(Set<String> managedAddresses) {
+        final Map<String, SourceDevice> connectedDevs = connectedTracker.getDevices();
+        Timber.d("Connected devices (%d): %s", connectedDevs.size(), connectedDevs);
 
-                    return Single.merge(profiles)
-                            .toList()
-                            .map(lists -> {
-                                HashSet<BluetoothDevice> unique = new HashSet<>();
-                                for (List<BluetoothDevice> ll : lists) unique.addAll(ll);
-                                return unique;
-                            })
-                            .map(combined -> {
-                                Timber.d("Connected COMBINED devices (%d): %s", combined.size(), combined);
-                                Map<String, SourceDevice> connectedDevs = new HashMap<>();
-                                for (BluetoothDevice d : combined) connectedDevs.put(d.getAddress(), new SourceDeviceWrapper(d));
-
-                                final Set<String> managedAddrs = realmSource.getManagedAddresses().blockingGet();
-
-                                boolean noManagedDeviceConnected = true;
-                                for (String addr : connectedDevs.keySet()) {
-                                    if (managedAddrs.contains(addr)) {
-                                        noManagedDeviceConnected = false;
-                                        break;
-                                    }
-                                }
-                                if (noManagedDeviceConnected) {
-                                    Timber.d("No (real) managed device is connected, connect fake speaker device %s", fakeSpeakerDevice);
-                                    connectedDevs.put(fakeSpeakerDevice.getAddress(), fakeSpeakerDevice);
-                                }
+        boolean noManagedDeviceConnected = true;
+        for (String addr : connectedDevs.keySet()) {
+            if (managedAddresses.contains(addr)) {
+                noManagedDeviceConnected = false;
+                break;
+            }
+        }
+        if (noManagedDeviceConnected) {
+            Timber.d("No (real) managed device is connected, connect fake speaker device %s", fakeSpeakerDevice);
+            connectedDevs.put(fakeSpeakerDevice.getAddress(), fakeSpeakerDevice);
+        }
 
-                                for (SourceDevice device : connectedDevs.values()) {
-                                    if (!managedAddrs.contains(device.getAddress())) {
-                                        Timber.d("%s is connected, but not managed by us.", device);
-                                    }
-                                }
+        for (SourceDevice device : connectedDevs.values()) {
+            if (!managedAddresses.contains(device.getAddress())) {
+                Timber.d("%s is connected, but not managed by us.", device);
+            }
+        }
 
-                                return connectedDevs;
-                            });
+        final Map<String, SourceDevice> previous = connectedPublisher.getValue();
+        final Map<String, SourceDevice> snapshot = Collections.unmodifiableMap(connectedDevs);
+        final DeviceDiff diff = DeviceDiff.between(previous, snapshot);
+        if (previous != null && diff.isEmpty()) return previous;
+
+        Timber.d("Connected devices changed: %s", diff);
+        connectedPublisher.onNext(snapshot);
+        connectedDiffPublisher.onNext(diff);
+        return snapshot;
+    }
+
+    @Override
+    public Single<Map<String, SourceDevice>> awaitConnectionState(SourceDevice.Event event) {
+        // The receiver and the service both wait for the same event, share one check per device and state.
+        final String key = event.getAddress() + "|" + event.getType();
+        synchronized (readinessChecks) {
+            Single<Map<String, SourceDevice>> check = readinessChecks.get(key);
+            if (check == null) {
+                check = createReadinessCheck(event)
+                        .doFinally(() -> {
+                            synchronized (readinessChecks) {
+                                readinessChecks.remove(key);
+                            }
+                        })
+                        .cache();
+                readinessChecks.put(key, check);
+            }
+            return check;
+        }
+    }
+
+    private Single<Map<String, SourceDevice>> createReadinessCheck(SourceDevice.Event event) {
+        final boolean shouldBeConnected = event.getType() == SourceDevice.Event.Type.CONNECTED;
+
+        // Fallback if the device doesn't show up on a profile that broadcasts its state (e.g. GATT).
+        final Observable<Map<String, SourceDevice>> polls = Observable
+                .range(0, Integer.MAX_VALUE)
+                .concatMap(attempt -> {
+                    final long delay = Math.min(READINESS_POLL_MAX_DELAY, READINESS_POLL_INITIAL_DELAY << Math.min(attempt, 16));
+                    return Observable.timer(delay, TimeUnit.MILLISECONDS);
                 })
-                .doOnSuccess(connectedPublisher::onNext);
+                .startWithItem(0L)
+                .doOnNext(tick -> Timber.d("Polling connection state for %s", event))
+                .concatMapSingle(tick -> Single.defer(() -> {
+                    final long start = connectTracer.now();
+                    return reloadConnectedDevices().doFinally(() -> connectTracer.record(ConnectTracer.Stage.DEVICE_RELOAD, event.getAddress(), start));
+                }));
+
+        // Profile state broadcasts update the connected devices directly.
+        // The replayed snapshot may predate this event (e.g. a quick reconnect), the first poll reloads instead.
+        final Observable<Map<String, SourceDevice>> updates = Observable.defer(() -> connectedPublisher.hasValue() ? connectedPublisher.skip(1) : connectedPublisher);
+        return Observable.merge(updates, polls)
+                .filter(devices -> devices.containsKey(event.getAddress()) == shouldBeConnected)
+                .firstOrError()
+                .timeout(READINESS_TIMEOUT, TimeUnit.MILLISECONDS)
+                .onErrorResumeNext(e -> {
+                    if (e instanceof TimeoutException) return Single.error(new MissingDeviceException(event));
+                    return Single.error(e);
+                });
     }
 
     @Override
@@ -264,32 +359,24 @@ class LiveBluetoothSource implements BluetoothSource {
         return connectedPublisher;
     }
 
-    private Single<List<BluetoothDevice>> getDevicesForProfile(int desiredProfile) {
-        return Single
-                .create((SingleOnSubscribe<List<BluetoothDevice>>) emitter -> {
-                    long queryStart = System.currentTimeMillis();
-                    BluetoothProfile.ServiceListener listener = new BluetoothProfile.ServiceListener() {
-                        @SuppressWarnings("ConstantConditions")
-                        public void onServiceConnected(int profile, BluetoothProfile proxy) {
-                            final List<BluetoothDevice> connectedDevices = proxy.getConnectedDevices();
-                            Timber.v("%dms to onServiceConnected(profile=%d, connected=%s)", (System.currentTimeMillis() - queryStart), profile, connectedDevices);
-                            // Fuck me, listener always calls back on the main thread...
-                            emitter.onSuccess(connectedDevices);
-                            adapter.closeProfileProxy(profile, proxy);
-                        }
+    @Override
+    public Observable<DeviceDiff> connectedDeviceChanges() {
+        return connectedDiffPublisher;
+    }
 
-                        public void onServiceDisconnected(int profile) {
-                            Timber.v("onServiceDisconnected(profile=%d)", profile);
-                        }
-                    };
+    private static class ProfileDevices {
+        final int profile;
+        final List<BluetoothDevice> devices;
 
-                    final boolean success = adapter != null && adapter.getProfileProxy(context, listener, desiredProfile);
-                    Timber.v("getDevicesForProfile(profile=%d, success=%b)", desiredProfile, success);
-                    if (!success) emitter.onSuccess(new ArrayList<>());
-                })
-                .subscribeOn(Schedulers.io())
-                .observeOn(Schedulers.io())
-                .timeout(8, TimeUnit.SECONDS, Single.just(new ArrayList<>()));
+        ProfileDevices(int profile, List<BluetoothDevice> devices) {
+            this.profile = profile;
+            this.devices = devices;
+        }
+    }
+
+    private Single<List<BluetoothDevice>> getDevicesForProfile(int desiredProfile) {
+        return proxyCache.getConnectedDevices(desiredProfile)
+                .doOnSuccess(devices -> Timber.v("getDevicesForProfile(profile=%d): %s", desiredProfile, devices));
     }
 
 }
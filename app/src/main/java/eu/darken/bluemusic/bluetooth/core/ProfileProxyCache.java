@@ -0,0 +1,154 @@
+package eu.darken.bluemusic.bluetooth.core;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.Nullable;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.subjects.SingleSubject;
+import timber.log.Timber;
+
+/**
+ * Binds each profile proxy once and keeps it while the adapter is enabled.
+ * Lookups on a bound proxy are direct calls instead of a new service bind per query.
+ */
+class ProfileProxyCache {
+    private static final long BIND_TIMEOUT = 8;
+
+    private final Context context;
+    @Nullable private final BluetoothAdapter adapter;
+    private final Map<Integer, BluetoothProfile> proxies = new HashMap<>();
+    // Proxies whose service went away, the framework reconnects them on its own
+    private final Map<Integer, BluetoothProfile> disconnected = new HashMap<>();
+    private final Map<Integer, SingleSubject<BluetoothProfile>> pendingBinds = new HashMap<>();
+    private final Map<Integer, Long> bindStarts = new HashMap<>();
+
+    private final BluetoothProfile.ServiceListener listener = new BluetoothProfile.ServiceListener() {
+        @Override
+        public void onServiceConnected(int profile, BluetoothProfile proxy) {
+            final SingleSubject<BluetoothProfile> pending;
+            final Long bindStart;
+            final List<BluetoothProfile> stale = new ArrayList<>();
+            synchronized (ProfileProxyCache.this) {
+                final BluetoothProfile previous = proxies.put(profile, proxy);
+                if (previous != null && previous != proxy) stale.add(previous);
+                final BluetoothProfile old = disconnected.remove(profile);
+                if (old != null && old != proxy) stale.add(old);
+                pending = pendingBinds.remove(profile);
+                bindStart = bindStarts.remove(profile);
+            }
+            if (bindStart != null) {
+                Timber.v("%dms to onServiceConnected(profile=%d)", System.currentTimeMillis() - bindStart, profile);
+            }
+            // A lookup bound a new proxy while the old one was disconnected, only one is kept
+            for (BluetoothProfile other : stale) close(profile, other);
+            if (pending != null) pending.onSuccess(proxy);
+        }
+
+        @Override
+        public void onServiceDisconnected(int profile) {
+            Timber.v("onServiceDisconnected(profile=%d)", profile);
+            synchronized (ProfileProxyCache.this) {
+                final BluetoothProfile proxy = proxies.remove(profile);
+                if (proxy != null) disconnected.put(profile, proxy);
+            }
+        }
+    };
+
+    ProfileProxyCache(Context context, @Nullable BluetoothAdapter adapter) {
+        this.context = context;
+        this.adapter = adapter;
+    }
+
+    Single<List<BluetoothDevice>> getConnectedDevices(int profile) {
+        return Single
+                .defer(() -> {
+                    final BluetoothProfile proxy;
+                    synchronized (ProfileProxyCache.this) {
+                        proxy = proxies.get(profile);
+                    }
+                    if (proxy != null) return Single.just(proxy);
+                    final SingleSubject<BluetoothProfile> pending = bind(profile);
+                    return pending.hide()
+                            .timeout(BIND_TIMEOUT, TimeUnit.SECONDS)
+                            .doOnError(e -> {
+                                synchronized (ProfileProxyCache.this) {
+                                    // Allow the next query to try a fresh bind, unless a newer one is under way
+                                    if (pendingBinds.get(profile) == pending) {
+                                        pendingBinds.remove(profile);
+                                        bindStarts.remove(profile);
+                                    }
+                                }
+                            });
+                })
+                .map(BluetoothProfile::getConnectedDevices)
+                .onErrorReturn(e -> {
+                    Timber.w("Couldn't get connected devices for profile %d: %s", profile, e.toString());
+                    return new ArrayList<>();
+                });
+    }
+
+    private SingleSubject<BluetoothProfile> bind(int profile) {
+        final SingleSubject<BluetoothProfile> pending;
+        synchronized (this) {
+            final SingleSubject<BluetoothProfile> existing = pendingBinds.get(profile);
+            if (existing != null) return existing;
+            pending = SingleSubject.create();
+            pendingBinds.put(profile, pending);
+            bindStarts.put(profile, System.currentTimeMillis());
+        }
+
+        final boolean success = adapter != null && adapter.getProfileProxy(context, listener, profile);
+        Timber.v("bind(profile=%d, success=%b)", profile, success);
+        if (!success) {
+            synchronized (this) {
+                pendingBinds.remove(profile);
+                bindStarts.remove(profile);
+            }
+            pending.onError(new IllegalStateException("Profile proxy not available: " + profile));
+        }
+        return pending;
+    }
+
+    /**
+     * Closes all proxies and fails pending binds, e.g. when the adapter is turned off. They are bound again on demand.
+     */
+    void release() {
+        final Map<Integer, BluetoothProfile> toClose;
+        final Map<Integer, BluetoothProfile> toCloseDisconnected;
+        final List<SingleSubject<BluetoothProfile>> toFail;
+        synchronized (this) {
+            toClose = new HashMap<>(proxies);
+            toCloseDisconnected = new HashMap<>(disconnected);
+            proxies.clear();
+            disconnected.clear();
+            toFail = new ArrayList<>(pendingBinds.values());
+            pendingBinds.clear();
+            bindStarts.clear();
+        }
+        Timber.d("Releasing %d profile proxies, failing %d pending binds.", toClose.size() + toCloseDisconnected.size(), toFail.size());
+        for (SingleSubject<BluetoothProfile> pending : toFail) {
+            pending.onError(new IllegalStateException("Profile proxies were released"));
+        }
+        for (Map.Entry<Integer, BluetoothProfile> entry : toClose.entrySet()) {
+            close(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Integer, BluetoothProfile> entry : toCloseDisconnected.entrySet()) {
+            close(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void close(int profile, BluetoothProfile proxy) {
+        if (adapter == null) return;
+        Timber.v("Closing proxy for profile %d", profile);
+        adapter.closeProfileProxy(profile, proxy);
+    }
+}
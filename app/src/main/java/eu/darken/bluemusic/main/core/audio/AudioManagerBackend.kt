@@ -0,0 +1,41 @@
+package eu.darken.bluemusic.main.core.audio
+
+import android.annotation.TargetApi
+import android.media.AudioDeviceCallback
+import android.media.AudioDeviceInfo
+import android.media.AudioManager
+import android.os.Build
+import eu.darken.bluemusic.util.ApiHelper
+import timber.log.Timber
+
+class AudioManagerBackend(private val audioManager: AudioManager) : AudioBackend {
+    private var deviceCallback: AudioDeviceCallback? = null
+
+    override fun getStreamVolume(streamType: Int): Int = audioManager.getStreamVolume(streamType)
+
+    override fun getStreamMaxVolume(streamType: Int): Int = audioManager.getStreamMaxVolume(streamType)
+
+    override fun setStreamVolume(streamType: Int, index: Int, flags: Int) {
+        // https://stackoverflow.com/questions/6733163/notificationmanager-notify-fails-with-securityexception
+        audioManager.setStreamVolume(streamType, index, flags)
+    }
+
+    @Synchronized override fun setRouteChangeListener(listener: (() -> Unit)?) {
+        if (!ApiHelper.hasMarshmallow()) return
+        deviceCallback?.let { audioManager.unregisterAudioDeviceCallback(it) }
+        deviceCallback = listener?.let { createDeviceCallback(it) }?.also { audioManager.registerAudioDeviceCallback(it, null) }
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private fun createDeviceCallback(listener: () -> Unit) = object : AudioDeviceCallback() {
+        override fun onAudioDevicesAdded(addedDevices: Array<out AudioDeviceInfo>) {
+            Timber.v("Audio devices added: %d", addedDevices.size)
+            listener()
+        }
+
+        override fun onAudioDevicesRemoved(removedDevices: Array<out AudioDeviceInfo>) {
+            Timber.v("Audio devices removed: %d", removedDevices.size)
+            listener()
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package eu.darken.bluemusic.main.core.audio;
 
-import android.database.ContentObserver;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Handler;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -12,48 +15,90 @@ import javax.inject.Named;
 import timber.log.Timber;
 
 
-public class VolumeObserver extends ContentObserver {
+/**
+ * Listens to the volume change broadcast, which names the changed stream and its new volume.
+ * Unrelated settings changes don't reach us and only the affected stream is looked at.
+ */
+public class VolumeObserver {
+    // Hidden in AudioManager, but stable since API 1
+    static final String VOLUME_CHANGED_ACTION = "android.media.VOLUME_CHANGED_ACTION";
+    static final String EXTRA_VOLUME_STREAM_TYPE = "android.media.EXTRA_VOLUME_STREAM_TYPE";
+    static final String EXTRA_VOLUME_STREAM_VALUE = "android.media.EXTRA_VOLUME_STREAM_VALUE";
 
+    private static final AudioStream.Id[] IDS = AudioStream.Id.values();
+    private static final int UNKNOWN = -1;
+    // Maps AudioManager stream types to Id ordinals
+    private static final int[] ORDINALS;
+
+    static {
+        int maxType = 0;
+        for (AudioStream.Id id : IDS) maxType = Math.max(maxType, id.getId());
+        ORDINALS = new int[maxType + 1];
+        for (int i = 0; i < ORDINALS.length; i++) ORDINALS[i] = UNKNOWN;
+        for (AudioStream.Id id : IDS) ORDINALS[id.getId()] = id.ordinal();
+    }
+
+    private final Context context;
+    private final Handler handler;
     private final StreamHelper streamHelper;
 
     public interface Callback {
         void onVolumeChanged(AudioStream.Id streamId, int volume);
     }
 
-    private final Map<AudioStream.Id, Callback> callbacks = new HashMap<>();
-    private final Map<AudioStream.Id, Integer> volumes = new HashMap<>();
+    // Written from the main thread, read on the handler thread, both indexed by Id ordinal.
+    private final AtomicReferenceArray<Callback> callbacks = new AtomicReferenceArray<>(IDS.length);
+    private final AtomicIntegerArray volumes = new AtomicIntegerArray(IDS.length);
+
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final int streamType = intent.getIntExtra(EXTRA_VOLUME_STREAM_TYPE, -1);
+            final int volume = intent.getIntExtra(EXTRA_VOLUME_STREAM_VALUE, -1);
+            onStreamVolume(streamType, volume);
+        }
+    };
 
     @Inject
-    public VolumeObserver(@Named("VolumeObserver") Handler handler, StreamHelper streamHelper) {
-        super(handler);
+    public VolumeObserver(Context context, @Named("VolumeObserver") Handler handler, StreamHelper streamHelper) {
+        this.context = context;
+        this.handler = handler;
         this.streamHelper = streamHelper;
+        for (int i = 0; i < IDS.length; i++) volumes.set(i, UNKNOWN);
     }
 
     public void addCallback(AudioStream.Id id, Callback callback) {
-        callbacks.put(id, callback);
-        final int volume = streamHelper.getCurrentVolume(id);
-        volumes.put(id, volume);
+        volumes.set(id.ordinal(), streamHelper.getCurrentVolume(id));
+        callbacks.set(id.ordinal(), callback);
     }
 
-    @Override
-    public boolean deliverSelfNotifications() {
-        return false;
+    public void register() {
+        context.registerReceiver(receiver, new IntentFilter(VOLUME_CHANGED_ACTION), null, handler);
     }
 
-    @Override
-    public void onChange(boolean selfChange) {
-        super.onChange(selfChange);
-        Timber.v("Change detected.");
-        for (Map.Entry<AudioStream.Id, Callback> entry : callbacks.entrySet()) {
-            final AudioStream.Id id = entry.getKey();
-            Callback callback = callbacks.get(id);
-            int newVolume = streamHelper.getCurrentVolume(id);
-            int oldVolume = volumes.containsKey(id) ? volumes.get(id) : -1;
-            if (newVolume != oldVolume) {
-                Timber.v("Volume changed (type=%s, old=%d, new=%d)", id, oldVolume, newVolume);
-                volumes.put(id, newVolume);
-                callback.onVolumeChanged(id, newVolume);
-            }
+    public void unregister() {
+        context.unregisterReceiver(receiver);
+    }
+
+    /**
+     * Doesn't allocate unless the volume actually changed.
+     */
+    void onStreamVolume(int streamType, int newVolume) {
+        if (streamType < 0 || streamType >= ORDINALS.length) return;
+        final int ordinal = ORDINALS[streamType];
+        if (ordinal == UNKNOWN) return;
+
+        final Callback callback = callbacks.get(ordinal);
+        if (callback == null) return;
+
+        final AudioStream.Id id = IDS[ordinal];
+        // Older ROMs may leave out the value
+        if (newVolume < 0) newVolume = streamHelper.getCurrentVolume(id);
+
+        final int oldVolume = volumes.getAndSet(ordinal, newVolume);
+        if (newVolume != oldVolume) {
+            Timber.v("Volume changed (type=%s, old=%d, new=%d)", id, oldVolume, newVolume);
+            callback.onVolumeChanged(id, newVolume);
         }
     }
 }
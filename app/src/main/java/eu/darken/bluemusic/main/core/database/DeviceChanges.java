@@ -0,0 +1,77 @@
+package eu.darken.bluemusic.main.core.database;
+
+import java.util.Locale;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The difference between two {@link DeviceSnapshot}s.
+ */
+public class DeviceChanges {
+    private final DeviceSnapshot previous;
+    private final DeviceSnapshot snapshot;
+    private final Set<String> added;
+    private final Set<String> removed;
+    private final Set<String> changed;
+
+    DeviceChanges(DeviceSnapshot previous, DeviceSnapshot snapshot, Set<String> added, Set<String> removed, Set<String> changed) {
+        this.previous = previous;
+        this.snapshot = snapshot;
+        this.added = added;
+        this.removed = removed;
+        this.changed = changed;
+    }
+
+    @NonNull
+    public DeviceSnapshot getPrevious() {
+        return previous;
+    }
+
+    @NonNull
+    public DeviceSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @NonNull
+    public Set<String> getAdded() {
+        return added;
+    }
+
+    @NonNull
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    @NonNull
+    public Set<String> getChanged() {
+        return changed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    /**
+     * @return true if a device that is, or was, active is part of this change
+     */
+    public boolean affectsActiveDevices() {
+        for (String address : added) {
+            if (snapshot.getDevices().get(address).isActive()) return true;
+        }
+        for (String address : removed) {
+            if (previous.getDevices().get(address).isActive()) return true;
+        }
+        for (String address : changed) {
+            if (snapshot.getDevices().get(address).isActive()) return true;
+            if (previous.getDevices().get(address).isActive()) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "DeviceChanges(version=%d, added=%s, removed=%s, changed=%s)",
+                snapshot.getVersion(), added, removed, changed);
+    }
+}
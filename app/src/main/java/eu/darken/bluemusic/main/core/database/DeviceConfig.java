@@ -1,6 +1,8 @@
 package eu.darken.bluemusic.main.core.database;
 
 
+import java.util.Objects;
+
 import io.realm.RealmObject;
 import io.realm.annotations.PrimaryKey;
 
@@ -28,4 +30,22 @@ public class DeviceConfig extends RealmObject {
     boolean autoplay;
 
     String launchPkg;
+
+    boolean contentEquals(DeviceConfig other) {
+        return Objects.equals(address, other.address)
+                && lastConnected == other.lastConnected
+                && Objects.equals(actionDelay, other.actionDelay)
+                && Objects.equals(adjustmentDelay, other.adjustmentDelay)
+                && Objects.equals(monitoringDuration, other.monitoringDuration)
+                && Objects.equals(musicVolume, other.musicVolume)
+                && Objects.equals(callVolume, other.callVolume)
+                && Objects.equals(ringVolume, other.ringVolume)
+                && Objects.equals(notificationVolume, other.notificationVolume)
+                && Objects.equals(alarmVolume, other.alarmVolume)
+                && volumeLock == other.volumeLock
+                && keepAwake == other.keepAwake
+                && nudgeVolume == other.nudgeVolume
+                && autoplay == other.autoplay
+                && Objects.equals(launchPkg, other.launchPkg);
+    }
 }
@@ -1,9 +1,11 @@
 package eu.darken.bluemusic.main.core.database;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
@@ -17,9 +19,11 @@ import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.core.Single;
 import io.reactivex.rxjava3.core.SingleSource;
+import io.reactivex.rxjava3.disposables.Disposable;
 import io.reactivex.rxjava3.functions.Function;
 import io.reactivex.rxjava3.schedulers.Schedulers;
 import io.reactivex.rxjava3.subjects.BehaviorSubject;
+import io.reactivex.rxjava3.subjects.SingleSubject;
 import io.realm.Realm;
 import io.realm.RealmResults;
 import timber.log.Timber;
@@ -27,11 +31,21 @@ import timber.log.Timber;
 
 @AppComponent.Scope
 public class DeviceManager {
+    static final long SAVE_WINDOW = 250;
 
     private final BluetoothSource bluetoothSource;
     private final StreamHelper streamHelper;
     private final RealmSource realmSource;
-    private final BehaviorSubject<Map<String, ManagedDevice>> deviceRepo = BehaviorSubject.create();
+    private final BehaviorSubject<DeviceChanges> changesRepo = BehaviorSubject.create();
+    private final SnapshotReconciler<DeviceState, ManagedDevice> reconciler = new SnapshotReconciler<>();
+    private DeviceSnapshot snapshot = DeviceSnapshot.EMPTY;
+
+    private final Object pendingLock = new Object();
+    private final Map<String, DeviceConfig> pendingWrites = new LinkedHashMap<>();
+    private SingleSubject<Map<String, ManagedDevice>> pendingBatch;
+    private Disposable pendingFlush;
+    private long saveRequests = 0;
+    private long coalescedWrites = 0;
 
     @Inject
     public DeviceManager(BluetoothSource bluetoothSource, StreamHelper streamHelper, RealmSource realmSource) {
@@ -39,79 +53,220 @@ public class DeviceManager {
         this.streamHelper = streamHelper;
         this.realmSource = realmSource;
 
-        bluetoothSource.isEnabled()
-                .subscribeOn(Schedulers.computation())
-                .flatMapSingle(active -> updateDevices())
-                .subscribe();
-        bluetoothSource.pairedDevices()
+        Observable
+                .merge(
+                        bluetoothSource.isEnabled(),
+                        bluetoothSource.pairedDevices(),
+                        bluetoothSource.connectedDevices()
+                )
                 .subscribeOn(Schedulers.computation())
-                .flatMapSingle(paired -> updateDevices())
+                .switchMapMaybe(trigger -> updateDevices().toMaybe().onErrorComplete())
                 .subscribe();
-        bluetoothSource.connectedDevices()
-                .subscribeOn(Schedulers.computation())
-                .flatMapSingle(active -> updateDevices())
+
+        // Don't keep volumes of a device that just disconnected waiting
+        bluetoothSource.connectedDeviceChanges()
+                .filter(diff -> !diff.getRemoved().isEmpty())
+                .flatMapCompletable(diff -> flush().onErrorComplete())
                 .subscribe();
+
+        // Stream limits can differ per output device
+        bluetoothSource.connectedDeviceChanges().subscribe(diff -> streamHelper.invalidateMaxVolumes());
     }
 
     @NonNull
     public Observable<Map<String, ManagedDevice>> devices() {
-        return deviceRepo;
+        return changesRepo.map(changes -> changes.getSnapshot().getDevices());
+    }
+
+    /**
+     * Only emits if devices were actually added, removed or changed.
+     * New subscribers get the last change replayed, its delta is relative to the update before it.
+     * Use {@link DeviceChanges#getSnapshot()} for the complete set of devices.
+     */
+    @NonNull
+    public Observable<DeviceChanges> changes() {
+        return changesRepo;
     }
 
     public Single<Map<String, ManagedDevice>> updateDevices() {
         return bluetoothSource.isEnabled()
                 .firstOrError()
-                .flatMap((Function<Boolean, SingleSource<Map<String, ManagedDevice>>>) activeBluetooth -> {
-                    if (!activeBluetooth) return Single.just(Collections.emptyMap());
-                    return Single.zip(
-                            bluetoothSource.connectedDevices().firstOrError(),
-                            bluetoothSource.pairedDevices().firstOrError(),
-                            (active, paired) -> {
-                                final Map<String, ManagedDevice> result = new HashMap<>();
-                                if (!bluetoothSource.isEnabled().blockingFirst()) return result;
-
-                                try (Realm realm = realmSource.getNewRealmInstance()) {
-                                    final RealmResults<DeviceConfig> deviceConfigs = realm.where(DeviceConfig.class).findAll();
-
-                                    realm.beginTransaction();
-                                    for (DeviceConfig config : deviceConfigs) {
-                                        if (!paired.containsKey(config.address)) continue;
-                                        final SourceDevice sourceDevice = paired.get(config.address);
-
-                                        final ManagedDevice managed = buildDevice(sourceDevice, realm.copyFromRealm(config));
-                                        managed.setActive(active.containsKey(managed.getAddress()));
-
-                                        if (active.containsKey(config.address)) {
-                                            config.lastConnected = System.currentTimeMillis();
-                                        }
-                                        Timber.v("Loaded: %s", managed);
-                                        result.put(managed.getAddress(), managed);
-                                    }
-
-                                    realm.commitTransaction();
-                                    return result;
-                                }
-                            });
+                .flatMap((Function<Boolean, SingleSource<DeviceSnapshot>>) activeBluetooth -> {
+                    if (!activeBluetooth) {
+                        return realmSource.execute(realm -> applyUpdate(realm, Collections.emptyMap(), Collections.emptyMap()));
+                    }
+                    return bluetoothSource.connectedDevices().firstOrError().flatMap(active -> bluetoothSource.pairedDevices()
+                            .firstOrError()
+                            .flatMap(paired -> realmSource.execute(realm -> applyUpdate(realm, active, paired)))
+                    );
                 })
-                .doOnError(Timber::e)
-                .doOnSuccess(deviceRepo::onNext);
+                .map(DeviceSnapshot::getDevices)
+                .doOnError(Timber::e);
+    }
+
+    /**
+     * How {@link #applyUpdate} gets at the configs, the database outside of tests.
+     */
+    interface ConfigAccess {
+        /**
+         * Called before a config is modified.
+         */
+        void beforeWrite();
+
+        /**
+         * @return an unmanaged copy
+         */
+        DeviceConfig copy(DeviceConfig config);
+    }
+
+    /**
+     * Runs on the database thread.
+     */
+    private synchronized DeviceSnapshot applyUpdate(Realm realm, Map<String, SourceDevice> active, Map<String, SourceDevice> paired) {
+        final RealmResults<DeviceConfig> deviceConfigs = realm.where(DeviceConfig.class).findAll();
+        final SnapshotReconciler<DeviceState, ManagedDevice>.Pass pass;
+        try {
+            pass = reconcile(deviceConfigs, active, paired, new ConfigAccess() {
+                @Override
+                public void beforeWrite() {
+                    if (!realm.isInTransaction()) realm.beginTransaction();
+                }
+
+                @Override
+                public DeviceConfig copy(DeviceConfig config) {
+                    return realm.copyFromRealm(config);
+                }
+            });
+            if (realm.isInTransaction()) realm.commitTransaction();
+        } finally {
+            if (realm.isInTransaction()) realm.cancelTransaction();
+        }
+        return publish(pass);
+    }
+
+    /**
+     * Like the database variant, for configs that are already loaded.
+     */
+    synchronized DeviceSnapshot applyUpdate(Iterable<DeviceConfig> configs, Map<String, SourceDevice> active, Map<String, SourceDevice> paired, ConfigAccess access) {
+        return publish(reconcile(configs, active, paired, access));
+    }
+
+    private SnapshotReconciler<DeviceState, ManagedDevice>.Pass reconcile(Iterable<DeviceConfig> configs, Map<String, SourceDevice> active, Map<String, SourceDevice> paired, ConfigAccess access) {
+        final SnapshotReconciler<DeviceState, ManagedDevice>.Pass pass = reconciler.newPass();
+        final long now = System.currentTimeMillis();
+
+        for (DeviceConfig config : configs) {
+            final SourceDevice sourceDevice = paired.get(config.address);
+            if (sourceDevice == null) continue;
+
+            final boolean isActive = active.containsKey(config.address);
+            final DeviceState state = pass.getState(config.address);
+            // Stamped when a device connects and when it disconnects, instead of touching every active device on each update.
+            // Disconnected devices end up with the same "last seen" time as before, connected ones keep their connect time.
+            final boolean connected = isActive && (state == null || !state.active);
+            final boolean disconnected = !isActive && state != null && state.active;
+            if (connected || disconnected) {
+                access.beforeWrite();
+                config.lastConnected = now;
+            }
+
+            if (state != null && state.isCurrent(pass.getItem(config.address), sourceDevice, isActive, config)) {
+                pass.keep(config.address);
+                continue;
+            }
+
+            final ManagedDevice managed = buildDevice(sourceDevice, access.copy(config));
+            managed.setActive(isActive);
+            pass.put(config.address, new DeviceState(sourceDevice, isActive, access.copy(config)), managed);
+            Timber.v("Loaded: %s", managed);
+        }
+        return pass;
     }
 
+    private DeviceSnapshot publish(SnapshotReconciler<DeviceState, ManagedDevice>.Pass pass) {
+        final DeviceSnapshot previous = snapshot;
+        if (!pass.commit(!changesRepo.hasValue())) {
+            Timber.v("No device changes.");
+            return previous;
+        }
+
+        final DeviceChanges changes = new DeviceChanges(
+                previous,
+                new DeviceSnapshot(pass.getVersion(), pass.getItems(), pass.getVersions()),
+                pass.getAdded(), pass.getRemoved(), pass.getChanged()
+        );
+        snapshot = changes.getSnapshot();
+        Timber.d("Devices updated: %s", changes);
+        changesRepo.onNext(changes);
+        return snapshot;
+    }
+
+    /**
+     * Queues the configs of these devices for writing.
+     * Saves within {@link #SAVE_WINDOW} are written together in one transaction, the last save of a device wins.
+     * Completes once the batch containing these devices was written.
+     */
     public Single<Map<String, ManagedDevice>> save(Collection<ManagedDevice> toSave) {
-        return Single.just(toSave)
-                .subscribeOn(Schedulers.computation())
-                .map(devices -> {
-                    try (Realm realm = realmSource.getNewRealmInstance()) {
-                        realm.beginTransaction();
-                        for (ManagedDevice device : devices) {
-                            Timber.d("Updated device: %s", device);
-                            realm.copyToRealmOrUpdate(device.getDeviceConfig());
+        return Single.defer(() -> {
+            synchronized (pendingLock) {
+                for (ManagedDevice device : toSave) {
+                    Timber.v("Queued device update: %s", device);
+                    if (pendingWrites.put(device.getAddress(), device.getDeviceConfig()) != null) coalescedWrites++;
+                }
+                saveRequests += toSave.size();
+                if (pendingBatch == null) {
+                    pendingBatch = SingleSubject.create();
+                    pendingFlush = Schedulers.computation().scheduleDirect(
+                            () -> flush().subscribe(() -> { }, e -> Timber.e(e, "Failed to write queued devices.")),
+                            SAVE_WINDOW, TimeUnit.MILLISECONDS
+                    );
+                }
+                return pendingBatch.hide();
+            }
+        });
+    }
+
+    /**
+     * Writes all queued device configs now, e.g. before the service stops or when a device disconnects.
+     */
+    public Completable flush() {
+        return Completable.defer(() -> {
+            final Collection<DeviceConfig> toWrite;
+            final SingleSubject<Map<String, ManagedDevice>> batch;
+            synchronized (pendingLock) {
+                if (pendingBatch == null) return Completable.complete();
+                if (pendingFlush != null) pendingFlush.dispose();
+                toWrite = new ArrayList<>(pendingWrites.values());
+                batch = pendingBatch;
+                pendingWrites.clear();
+                pendingBatch = null;
+                pendingFlush = null;
+                Timber.d("Writing %d devices, %d of %d saves were coalesced.", toWrite.size(), coalescedWrites, saveRequests);
+            }
+            return realmSource
+                    .write(realm -> {
+                        for (DeviceConfig config : toWrite) {
+                            // Connection stamps may be newer than the queued copy
+                            final DeviceConfig stored = realm.where(DeviceConfig.class).equalTo("address", config.address).findFirst();
+                            if (stored != null && stored.lastConnected > config.lastConnected) {
+                                config.lastConnected = stored.lastConnected;
+                            }
+                            Timber.d("Updated device: %s", config.address);
+                            realm.copyToRealmOrUpdate(config);
                         }
-                        realm.commitTransaction();
-                        return devices;
-                    }
-                })
-                .flatMap(managedDevices -> updateDevices());
+                        return toWrite;
+                    })
+                    .flatMap(written -> updateDevices())
+                    .doOnSuccess(batch::onSuccess)
+                    .doOnError(batch::onError)
+                    .ignoreElement();
+        });
+    }
+
+    public long getCoalescedWriteCount() {
+        synchronized (pendingLock) {
+            return coalescedWrites;
+        }
     }
 
     public Single<ManagedDevice> addNewDevice(SourceDevice toAdd) {
@@ -123,10 +278,7 @@ public class DeviceManager {
                         Timber.e("Device isn't paired device: %s", toAdd);
                         throw new IllegalArgumentException();
                     }
-
-                    try (Realm realm = realmSource.getNewRealmInstance()) {
-                        realm.beginTransaction();
-
+                    return realmSource.write(realm -> {
                         DeviceConfig config = realm.where(DeviceConfig.class).equalTo("address", toAdd.getAddress()).findFirst();
                         if (config != null) {
                             Timber.e("Trying to add already known device: %s (%s)", toAdd, config);
@@ -143,37 +295,56 @@ public class DeviceManager {
                         newDevice.setActive(active.containsKey(newDevice.getAddress()));
 
                         Timber.v("Added new device: %s", newDevice);
-                        realm.commitTransaction();
                         return newDevice;
-                    }
+                    }).doOnSuccess(newDevice -> realmSource.onManagedAdded(newDevice.getAddress()));
                 })
+                .flatMap(newDevice -> newDevice)
                 .doOnError(Timber::e)
                 .flatMap(newDevice -> save(Collections.singleton(newDevice)).map(res -> newDevice));
     }
 
     public Completable removeDevice(ManagedDevice device) {
-        return Completable
-                .create(e -> {
-                    try (Realm realm = realmSource.getNewRealmInstance()) {
-                        DeviceConfig config = realm.where(DeviceConfig.class).equalTo("address", device.getAddress()).findFirst();
-                        if (config != null) {
-                            realm.beginTransaction();
-                            config.deleteFromRealm();
-                            realm.commitTransaction();
-                        }
-                    } finally {
-                        Timber.d("Removed %s from managed devices.", device);
-                        e.onComplete();
-                    }
+        return realmSource
+                .write(realm -> {
+                    DeviceConfig config = realm.where(DeviceConfig.class).equalTo("address", device.getAddress()).findFirst();
+                    if (config != null) config.deleteFromRealm();
+                    return device;
+                })
+                .doOnSuccess(removed -> {
+                    realmSource.onManagedRemoved(removed.getAddress());
+                    Timber.d("Removed %s from managed devices.", removed);
                 })
+                .ignoreElement()
                 .doOnComplete(() -> updateDevices().subscribe());
     }
 
-    ManagedDevice buildDevice(SourceDevice sourceDevice, DeviceConfig config) {
-        ManagedDevice managed = new ManagedDevice(sourceDevice, config);
-        for (AudioStream.Type type : AudioStream.Type.values()) {
-            managed.setMaxVolume(type, streamHelper.getMaxVolume(sourceDevice.getStreamId(type)));
+    /**
+     * What a {@link ManagedDevice} was built from.
+     */
+    private static class DeviceState {
+        final SourceDevice source;
+        final boolean active;
+        final DeviceConfig config;
+
+        DeviceState(SourceDevice source, boolean active, DeviceConfig config) {
+            this.source = source;
+            this.active = active;
+            this.config = config;
+        }
+
+        /**
+         * Devices are handed out mutable, so the instance is only reused if nobody modified it either.
+         */
+        boolean isCurrent(ManagedDevice device, SourceDevice source, boolean active, DeviceConfig stored) {
+            return this.source == source
+                    && this.active == active
+                    && device.isActive() == active
+                    && config.contentEquals(stored)
+                    && device.getDeviceConfig().contentEquals(config);
         }
-        return managed;
+    }
+
+    ManagedDevice buildDevice(SourceDevice sourceDevice, DeviceConfig config) {
+        return new ManagedDevice(sourceDevice, config, streamHelper);
     }
 }
@@ -0,0 +1,47 @@
+package eu.darken.bluemusic.main.core.database;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The managed devices at one point in time.
+ * Each device carries the version of the update that last changed it, unchanged devices keep their instance and version.
+ */
+public class DeviceSnapshot {
+    static final DeviceSnapshot EMPTY = new DeviceSnapshot(0, Collections.emptyMap(), Collections.emptyMap());
+
+    private final long version;
+    private final Map<String, ManagedDevice> devices;
+    private final Map<String, Long> versions;
+
+    DeviceSnapshot(long version, Map<String, ManagedDevice> devices, Map<String, Long> versions) {
+        this.version = version;
+        this.devices = Collections.unmodifiableMap(devices);
+        this.versions = Collections.unmodifiableMap(versions);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @NonNull
+    public Map<String, ManagedDevice> getDevices() {
+        return devices;
+    }
+
+    /**
+     * @return -1 if the device is not part of this snapshot
+     */
+    public long getVersion(String address) {
+        final Long deviceVersion = versions.get(address);
+        return deviceVersion != null ? deviceVersion : -1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "DeviceSnapshot(version=%d, devices=%d)", version, devices.size());
+    }
+}
@@ -0,0 +1,77 @@
+package eu.darken.bluemusic.main.core.database;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import eu.darken.bluemusic.bluetooth.core.BluetoothEventReceiver;
+import eu.darken.bluemusic.bluetooth.core.FakeSpeakerDevice;
+import timber.log.Timber;
+
+/**
+ * A copy of the managed addresses that can be read without Realm or the object graph.
+ * Lets {@link BluetoothEventReceiver} drop events of unmanaged devices before anything else is set up.
+ * While no Bluetooth device is managed, the receiver is disabled altogether.
+ */
+public class ManagedAddressCache {
+    private static final String PREFS_NAME = "managed_addresses";
+    private static final String KEY_INITIALIZED = "initialized";
+    private static final String KEY_ADDRESSES = "addresses";
+
+    private final Context context;
+    private final SharedPreferences preferences;
+
+    @Inject
+    public ManagedAddressCache(Context context) {
+        this.context = context.getApplicationContext();
+        this.preferences = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return true until the addresses were first loaded from the database, callers have to take the slow path then
+     */
+    public boolean isManaged(String address) {
+        if (!preferences.getBoolean(KEY_INITIALIZED, false)) return true;
+        return preferences.getStringSet(KEY_ADDRESSES, Collections.emptySet()).contains(address);
+    }
+
+    /**
+     * Only pass sets that were actually loaded from the database.
+     */
+    synchronized void update(Set<String> addresses) {
+        final boolean initialized = preferences.getBoolean(KEY_INITIALIZED, false);
+        final Set<String> current = preferences.getStringSet(KEY_ADDRESSES, Collections.emptySet());
+        if (!initialized || !current.equals(addresses)) {
+            Timber.d("Updating managed address cache: %s", addresses);
+            preferences.edit()
+                    .putStringSet(KEY_ADDRESSES, new HashSet<>(addresses))
+                    .putBoolean(KEY_INITIALIZED, true)
+                    .apply();
+        }
+
+        boolean hasRealDevices = false;
+        for (String address : addresses) {
+            if (!FakeSpeakerDevice.ADDR.equals(address)) {
+                hasRealDevices = true;
+                break;
+            }
+        }
+        setReceiverEnabled(hasRealDevices);
+    }
+
+    private void setReceiverEnabled(boolean enabled) {
+        final PackageManager packageManager = context.getPackageManager();
+        final ComponentName component = new ComponentName(context, BluetoothEventReceiver.class);
+        final int state = enabled ? PackageManager.COMPONENT_ENABLED_STATE_DEFAULT : PackageManager.COMPONENT_ENABLED_STATE_DISABLED;
+        if (packageManager.getComponentEnabledSetting(component) == state) return;
+        Timber.i("%s Bluetooth event receiver.", enabled ? "Enabling" : "Disabling");
+        packageManager.setComponentEnabledSetting(component, state, PackageManager.DONT_KILL_APP);
+    }
+}
@@ -3,13 +3,32 @@ package eu.darken.bluemusic.main.core.database
 
 import eu.darken.bluemusic.bluetooth.core.SourceDevice
 import eu.darken.bluemusic.main.core.audio.AudioStream
+import eu.darken.bluemusic.main.core.audio.StreamHelper
+import eu.darken.bluemusic.main.core.port.VolumeDevice
 import timber.log.Timber
 import java.util.*
 
-class ManagedDevice internal constructor(val sourceDevice: SourceDevice, val deviceConfig: DeviceConfig) {
-    var isActive: Boolean = false
-
-    private val maxVolumeMap = HashMap<AudioStream.Type, Int>()
+class ManagedDevice internal constructor(
+        val sourceDevice: SourceDevice,
+        val deviceConfig: DeviceConfig,
+        private val streamHelper: StreamHelper
+) : VolumeDevice {
+    override var isActive: Boolean = false
+
+    // All indexed by ordinal. Volumes mirror the DeviceConfig, which is only modified through this class.
+    private val volumes = FloatArray(TYPES.size) { UNSET }
+    private val streamIds = Array(TYPES.size) { sourceDevice.getStreamId(TYPES[it]) }
+    private val streamTypes = arrayOfNulls<AudioStream.Type>(ID_COUNT)
+
+    init {
+        volumes[AudioStream.Type.MUSIC.ordinal] = deviceConfig.musicVolume ?: UNSET
+        volumes[AudioStream.Type.CALL.ordinal] = deviceConfig.callVolume ?: UNSET
+        volumes[AudioStream.Type.RINGTONE.ordinal] = deviceConfig.ringVolume ?: UNSET
+        volumes[AudioStream.Type.NOTIFICATION.ordinal] = deviceConfig.notificationVolume ?: UNSET
+        volumes[AudioStream.Type.ALARM.ordinal] = deviceConfig.alarmVolume ?: UNSET
+        // First type wins if a device maps several types to the same stream
+        for (i in TYPES.size - 1 downTo 0) streamTypes[streamIds[i].ordinal] = TYPES[i]
+    }
 
     val label: String
         get() = sourceDevice.label
@@ -26,7 +45,7 @@ class ManagedDevice internal constructor(val sourceDevice: SourceDevice, val dev
     val name: String?
         get() = sourceDevice.name
 
-    val address: String
+    override val address: String
         get() = sourceDevice.address
 
     var actionDelay: Long?
@@ -35,7 +54,7 @@ class ManagedDevice internal constructor(val sourceDevice: SourceDevice, val dev
             deviceConfig.actionDelay = actionDelay
         }
 
-    var adjustmentDelay: Long?
+    override var adjustmentDelay: Long?
         get() = deviceConfig.adjustmentDelay
         set(adjustmentDelay) {
             deviceConfig.adjustmentDelay = adjustmentDelay
@@ -47,7 +66,7 @@ class ManagedDevice internal constructor(val sourceDevice: SourceDevice, val dev
             deviceConfig.autoplay = enabled
         }
 
-    var volumeLock: Boolean
+    override var volumeLock: Boolean
         get() = deviceConfig.volumeLock
         set(enabled) {
             deviceConfig.volumeLock = enabled
@@ -59,7 +78,7 @@ class ManagedDevice internal constructor(val sourceDevice: SourceDevice, val dev
             deviceConfig.keepAwake = enabled
         }
 
-    var nudgeVolume: Boolean
+    override var nudgeVolume: Boolean
         get() = deviceConfig.nudgeVolume
         set(enabled) {
             deviceConfig.nudgeVolume = enabled
@@ -86,43 +105,44 @@ class ManagedDevice internal constructor(val sourceDevice: SourceDevice, val dev
                 isActive, address, name, getVolume(AudioStream.Type.MUSIC), getVolume(AudioStream.Type.CALL), getVolume(AudioStream.Type.RINGTONE), getVolume(AudioStream.Type.ALARM))
     }
 
-    fun setMaxVolume(type: AudioStream.Type, max: Int) {
-        maxVolumeMap[type] = max
-    }
+    fun getMaxVolume(type: AudioStream.Type): Int = streamHelper.getMaxVolume(getStreamId(type))
 
-    fun getMaxVolume(type: AudioStream.Type): Int {
-        return maxVolumeMap[type]!!
+    override fun setVolume(type: AudioStream.Type, volume: Float?) {
+        when (type) {
+            AudioStream.Type.MUSIC -> deviceConfig.musicVolume = volume
+            AudioStream.Type.CALL -> deviceConfig.callVolume = volume
+            AudioStream.Type.RINGTONE -> deviceConfig.ringVolume = volume
+            AudioStream.Type.NOTIFICATION -> deviceConfig.notificationVolume = volume
+            AudioStream.Type.ALARM -> deviceConfig.alarmVolume = volume
+        }
+        volumes[type.ordinal] = volume ?: UNSET
     }
 
-    fun setVolume(type: AudioStream.Type, volume: Float?) = when (type) {
-        AudioStream.Type.MUSIC -> deviceConfig.musicVolume = volume
-        AudioStream.Type.CALL -> deviceConfig.callVolume = volume
-        AudioStream.Type.RINGTONE -> deviceConfig.ringVolume = volume
-        AudioStream.Type.NOTIFICATION -> deviceConfig.notificationVolume = volume
-        AudioStream.Type.ALARM -> deviceConfig.alarmVolume = volume
+    override fun getVolume(type: AudioStream.Type): Float? {
+        val volume = volumes[type.ordinal]
+        return if (volume.isNaN()) null else volume
     }
 
-    fun getVolume(type: AudioStream.Type): Float? = when (type) {
-        AudioStream.Type.MUSIC -> deviceConfig.musicVolume
-        AudioStream.Type.CALL -> deviceConfig.callVolume
-        AudioStream.Type.RINGTONE -> deviceConfig.ringVolume
-        AudioStream.Type.NOTIFICATION -> deviceConfig.notificationVolume
-        AudioStream.Type.ALARM -> deviceConfig.alarmVolume
-    }
+    /**
+     * Like [getVolume] but without boxing.
+     * @return [UNSET] if there is no target volume for this type
+     */
+    fun getVolumeOrUnset(type: AudioStream.Type): Float = volumes[type.ordinal]
 
-    fun getRealVolume(type: AudioStream.Type): Int = Math.round(getMaxVolume(type) * getVolume(type)!!)
+    override fun hasVolume(type: AudioStream.Type): Boolean = !volumes[type.ordinal].isNaN()
 
-    fun getStreamId(type: AudioStream.Type): AudioStream.Id = sourceDevice.getStreamId(type)
+    fun getRealVolume(type: AudioStream.Type): Int {
+        val volume = volumes[type.ordinal]
+        check(!volume.isNaN()) { "No $type volume set for $address" }
+        return Math.round(getMaxVolume(type) * volume)
+    }
 
-    /**
-     * @return NULL if no mapping exists for this device
-     */
-    fun getStreamType(id: AudioStream.Id): AudioStream.Type? {
-        for (type in AudioStream.Type.values()) {
-            if (getStreamId(type) == id) return type
-        }
-        Timber.d("%s is not mapped by %s.", id, label)
-        return null
+    override fun getStreamId(type: AudioStream.Type): AudioStream.Id = streamIds[type.ordinal]
+
+    override fun getStreamType(id: AudioStream.Id): AudioStream.Type? {
+        val type = streamTypes[id.ordinal]
+        if (type == null) Timber.d("%s is not mapped by %s.", id, label)
+        return type
     }
 
     class Action(val device: ManagedDevice, val type: SourceDevice.Event.Type) {
@@ -130,4 +150,10 @@ class ManagedDevice internal constructor(val sourceDevice: SourceDevice, val dev
             return String.format(Locale.US, "ManagedDeviceAction(action=%s, device=%s)", type, device)
         }
     }
+
+    companion object {
+        const val UNSET = Float.NaN
+        private val TYPES = AudioStream.Type.values()
+        private val ID_COUNT = AudioStream.Id.values().size
+    }
 }
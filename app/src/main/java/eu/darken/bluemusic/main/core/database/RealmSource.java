@@ -1,38 +1,160 @@
 package eu.darken.bluemusic.main.core.database;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Executors;
 
 import javax.inject.Inject;
 
 import eu.darken.bluemusic.AppComponent;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Scheduler;
 import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.subjects.BehaviorSubject;
 import io.realm.Realm;
 import io.realm.RealmResults;
+import timber.log.Timber;
 
+/**
+ * All database access runs on one thread that keeps its Realm open.
+ * Writes are serialized by that thread, reads see all previous writes. Nothing handed to a task may leave it managed.
+ */
 @AppComponent.Scope
 public class RealmSource {
+
+    public interface Task<T> {
+        T run(Realm realm) throws Exception;
+    }
+
+    interface AddressListener {
+        void onAddressesChanged(Set<String> addresses);
+    }
+
+    private final AddressListener addressListener;
+    private final Scheduler scheduler = Schedulers.from(Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "RealmSource")));
+    private final BehaviorSubject<Set<String>> managedAddresses = BehaviorSubject.create();
+    // Only set once the initial load succeeded
+    private Set<String> addresses;
+    private Realm realm;
+
     @Inject
-    public RealmSource() {
+    public RealmSource(ManagedAddressCache managedAddressCache) {
+        this.addressListener = managedAddressCache::update;
+        loadAddresses(execute(realm -> {
+            final Set<String> addressSet = new HashSet<>();
+            final RealmResults<DeviceConfig> deviceConfigs = realm.where(DeviceConfig.class).findAll();
+            for (DeviceConfig config : deviceConfigs) {
+                addressSet.add(config.address);
+            }
+            return addressSet;
+        }));
     }
 
-    public Realm getNewRealmInstance() {
-        return Realm.getDefaultInstance();
+    RealmSource(AddressListener addressListener, Single<Set<String>> addressLoad) {
+        this.addressListener = addressListener;
+        loadAddresses(addressLoad);
     }
 
+    private void loadAddresses(Single<Set<String>> addressLoad) {
+        addressLoad.subscribe(
+                addresses -> {
+                    Timber.d("Loaded %d managed addresses.", addresses.size());
+                    synchronized (this) {
+                        this.addresses = new HashSet<>(addresses);
+                        managedAddresses.onNext(Collections.unmodifiableSet(new HashSet<>(addresses)));
+                        addressListener.onAddressesChanged(addresses);
+                    }
+                },
+                e -> {
+                    // Not passed on to the cache, that would disable the receiver
+                    Timber.e(e, "Failed to load managed addresses.");
+                    managedAddresses.onError(e);
+                }
+        );
+    }
+
+    /**
+     * Runs the task on the database thread, transactions are up to the task.
+     */
+    public <T> Single<T> execute(Task<T> task) {
+        return Single.fromCallable(() -> task.run(getRealm())).subscribeOn(scheduler);
+    }
+
+    /**
+     * Runs the task in a transaction on the database thread, the transaction is cancelled if the task throws.
+     */
+    public <T> Single<T> write(Task<T> task) {
+        return Single
+                .fromCallable(() -> {
+                    final Realm realm = getRealm();
+                    realm.beginTransaction();
+                    try {
+                        final T result = task.run(realm);
+                        realm.commitTransaction();
+                        return result;
+                    } finally {
+                        if (realm.isInTransaction()) realm.cancelTransaction();
+                    }
+                })
+                .subscribeOn(scheduler);
+    }
+
+    /**
+     * Errors if the initial load failed.
+     */
+    public Observable<Set<String>> managedAddresses() {
+        return managedAddresses;
+    }
+
+    /**
+     * Emits once the initial load finished, afterwards immediately. Errors if the initial load failed.
+     */
     public Single<Set<String>> getManagedAddresses() {
-        return Single.create(emitter -> {
-            Set<String> addressSet = new HashSet<>();
+        return managedAddresses.firstOrError();
+    }
 
-            try (Realm realm = getNewRealmInstance()) {
-                final RealmResults<DeviceConfig> deviceConfigs = realm.where(DeviceConfig.class).findAll();
-                for (DeviceConfig config : deviceConfigs) {
-                    addressSet.add(config.address);
-                }
-            }
+    /**
+     * Updates the address index, call from the task that added the device.
+     */
+    synchronized void onManagedAdded(String address) {
+        // Without the initial load this set would be partial, the cache would drop events of managed devices
+        if (addresses == null) {
+            Timber.w("Managed addresses weren't loaded, not tracking %s", address);
+            return;
+        }
+        if (addresses.add(address)) {
+            final Set<String> snapshot = new HashSet<>(addresses);
+            managedAddresses.onNext(Collections.unmodifiableSet(snapshot));
+            addressListener.onAddressesChanged(snapshot);
+        }
+    }
 
-            emitter.onSuccess(addressSet);
-        });
+    /**
+     * Updates the address index, call from the task that removed the device.
+     */
+    synchronized void onManagedRemoved(String address) {
+        // Without the initial load this set would be partial, the cache would drop events of managed devices
+        if (addresses == null) {
+            Timber.w("Managed addresses weren't loaded, not tracking %s", address);
+            return;
+        }
+        if (addresses.remove(address)) {
+            final Set<String> snapshot = new HashSet<>(addresses);
+            managedAddresses.onNext(Collections.unmodifiableSet(snapshot));
+            addressListener.onAddressesChanged(snapshot);
+        }
     }
 
+    private Realm getRealm() {
+        if (realm == null) {
+            Timber.d("Opening Realm on %s", Thread.currentThread());
+            realm = Realm.getDefaultInstance();
+        } else {
+            // Without a looper the instance doesn't advance on its own
+            realm.refresh();
+        }
+        return realm;
+    }
 }
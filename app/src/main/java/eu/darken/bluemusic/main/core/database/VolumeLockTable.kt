@@ -0,0 +1,70 @@
+package eu.darken.bluemusic.main.core.database
+
+import eu.darken.bluemusic.AppComponent
+import eu.darken.bluemusic.main.core.audio.AudioStream
+import timber.log.Timber
+import javax.inject.Inject
+
+/**
+ * The locked target of each stream, rebuilt when the active devices change instead of on each volume change.
+ * If two active devices lock the same stream, the one that connected last wins.
+ */
+@AppComponent.Scope
+class VolumeLockTable @Inject constructor(deviceManager: DeviceManager) {
+
+    class Lock(val address: String, val type: AudioStream.Type, val percentage: Float, internal val lastConnected: Long) {
+        override fun toString(): String = "Lock(address=$address, type=$type, percentage=$percentage)"
+    }
+
+    // Indexed by Id ordinal, replaced as a whole
+    @Volatile private var locks = arrayOfNulls<Lock>(IDS.size)
+    @Volatile var conflicts: Set<AudioStream.Id> = emptySet()
+        private set
+
+    init {
+        deviceManager.changes()
+                // The replayed delta may not touch active devices, its snapshot still seeds the table
+                .publish { changes -> changes.take(1).mergeWith(changes.skip(1).filter { it.affectsActiveDevices() }) }
+                .subscribe(
+                        { rebuild(it.snapshot.devices.values) },
+                        { Timber.e(it, "Failed to update volume locks.") }
+                )
+    }
+
+    /**
+     * @return NULL if no active device locks this stream
+     */
+    operator fun get(id: AudioStream.Id): Lock? = locks[id.ordinal]
+
+    private fun rebuild(devices: Collection<ManagedDevice>) {
+        val table = arrayOfNulls<Lock>(IDS.size)
+        val conflicting = HashSet<AudioStream.Id>()
+        for (device in devices) {
+            if (!device.isActive || !device.volumeLock) continue
+            for (type in TYPES) {
+                val percentage = device.getVolumeOrUnset(type)
+                if (percentage.isNaN() || percentage == -1f) continue
+
+                val id = device.getStreamId(type)
+                val lock = Lock(device.address, type, percentage, device.lastConnected)
+                val existing = table[id.ordinal]
+                if (existing == null) {
+                    table[id.ordinal] = lock
+                } else if (existing.address != device.address) {
+                    val winner = if (lock.lastConnected > existing.lastConnected) lock else existing
+                    Timber.w("Volume lock conflict on %s between %s and %s, %s wins.", id, existing, lock, winner.address)
+                    table[id.ordinal] = winner
+                    conflicting.add(id)
+                }
+            }
+        }
+        locks = table
+        conflicts = conflicting
+        Timber.d("Volume locks updated: %s", table.filterNotNull())
+    }
+
+    companion object {
+        private val IDS = AudioStream.Id.values()
+        private val TYPES = AudioStream.Type.values()
+    }
+}
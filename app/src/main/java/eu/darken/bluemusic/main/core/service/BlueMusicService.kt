@@ -10,7 +10,6 @@ import android.content.IntentFilter
 import android.os.Binder
 import android.os.Build
 import android.os.IBinder
-import android.util.SparseArray
 import androidx.annotation.RequiresApi
 import eu.darken.bluemusic.App
 import eu.darken.bluemusic.R
@@ -24,25 +23,33 @@ import eu.darken.bluemusic.main.core.audio.VolumeObserver
 import eu.darken.bluemusic.main.core.database.DeviceManager
 import eu.darken.bluemusic.main.core.database.ManagedDevice
 import eu.darken.bluemusic.main.core.service.modules.EventModule
+import eu.darken.bluemusic.main.core.service.modules.ModuleStageExecutor
 import eu.darken.bluemusic.main.core.service.modules.VolumeModule
+import eu.darken.bluemusic.main.core.service.modules.volume.VolumeMonitorModule
+import eu.darken.bluemusic.main.core.trace.ConnectTracer
+import eu.darken.bluemusic.main.core.trace.EventTraceRecorder
 import eu.darken.bluemusic.settings.core.Settings
 import eu.darken.bluemusic.util.ApiHelper
 import eu.darken.bluemusic.util.WakelockMan
-import eu.darken.bluemusic.util.ui.RetryWithDelay
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers
-import io.reactivex.rxjava3.core.Completable
 import io.reactivex.rxjava3.core.Single
 import io.reactivex.rxjava3.disposables.CompositeDisposable
 import io.reactivex.rxjava3.disposables.Disposable
 import io.reactivex.rxjava3.schedulers.Schedulers
 import timber.log.Timber
-import java.util.concurrent.CountDownLatch
-import java.util.concurrent.Executors
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import javax.inject.Inject
 
 
 class BlueMusicService : Service(), VolumeObserver.Callback {
+
+    companion object {
+        // Events of the same device are serialized, up to this many devices are handled in parallel.
+        private const val MAX_PARALLEL_DEVICES = 4
+    }
+
     @Inject lateinit var deviceManager: DeviceManager
     @Inject lateinit var bluetoothSource: BluetoothSource
     @Inject lateinit var streamHelper: StreamHelper
@@ -50,14 +57,21 @@ class BlueMusicService : Service(), VolumeObserver.Callback {
     @Inject lateinit var settings: Settings
     @Inject lateinit var serviceHelper: ServiceHelper
     @Inject lateinit var wakelockMan: WakelockMan
-    @Inject lateinit var eventModuleMap: Map<Class<out EventModule>, @JvmSuppressWildcards EventModule>
-    @Inject lateinit var volumeModuleMap: Map<Class<out VolumeModule>, @JvmSuppressWildcards VolumeModule>
+    @Inject lateinit var eventStageExecutor: ModuleStageExecutor<EventModule>
+    @Inject lateinit var volumeStageExecutor: ModuleStageExecutor<VolumeModule>
+    @Inject lateinit var connectTracer: ConnectTracer
+    @Inject lateinit var eventRecorder: EventTraceRecorder
+    @Inject internal lateinit var volumeMonitor: VolumeMonitorModule
 
-    private val eventScheduler = Schedulers.from(Executors.newSingleThreadExecutor())
-    private val volumeScheduler = Schedulers.from(Executors.newSingleThreadExecutor())
+    private val eventLanes = EventLanes("EventLane", MAX_PARALLEL_DEVICES)
+    private lateinit var volumeDispatcher: VolumeDispatcher
+    private lateinit var eventCoalescer: EventCoalescer
+    private var eventSub = Disposable.disposed()
     private var notificationSub = Disposable.disposed()
     private var isActiveSub = Disposable.disposed()
-    private val onGoingConnections = LinkedHashMap<String, CompositeDisposable>()
+    private var monitorSub = Disposable.disposed()
+    private val onGoingConnections = ConcurrentHashMap<String, CompositeDisposable>()
+    private val handlingEvents = AtomicInteger()
 
     private val ringerPermission = object : BroadcastReceiver() {
         @RequiresApi(api = Build.VERSION_CODES.M)
@@ -74,20 +88,30 @@ class BlueMusicService : Service(), VolumeObserver.Callback {
         (application as App).serviceInjector().inject(this)
         super.onCreate()
 
+        eventCoalescer = EventCoalescer(settings.eventCoalescingWindow)
+        eventSub = eventCoalescer.events()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe { event -> handleEvent(event) }
+
+        volumeDispatcher = VolumeDispatcher { id, volume ->
+            volumeStageExecutor.execute { module -> module.handle(id, volume) }
+        }
+
         for (id in AudioStream.Id.values()) {
             volumeObserver.addCallback(id, this)
         }
-        contentResolver.registerContentObserver(android.provider.Settings.System.CONTENT_URI, true, volumeObserver)
+        volumeObserver.register()
 
         if (ApiHelper.hasMarshmallow()) {
             registerReceiver(ringerPermission, IntentFilter(NotificationManager.ACTION_NOTIFICATION_POLICY_ACCESS_GRANTED_CHANGED))
         }
 
-        notificationSub = deviceManager.devices()
+        notificationSub = deviceManager.changes()
+                .publish { changes -> changes.take(1).mergeWith(changes.skip(1).filter { it.affectsActiveDevices() }) }
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe { stringManagedDeviceMap ->
+                .subscribe { changes ->
                     val connected = ArrayList<ManagedDevice>()
-                    for (d in stringManagedDeviceMap.values) {
+                    for (d in changes.snapshot.devices.values) {
                         if (d.isActive) connected.add(d)
                     }
                     serviceHelper.updateActiveDevices(connected)
@@ -95,17 +119,37 @@ class BlueMusicService : Service(), VolumeObserver.Callback {
         isActiveSub = bluetoothSource.isEnabled
                 .subscribeOn(Schedulers.computation())
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe { isActive -> if (!isActive) serviceHelper.stop() }
+                .subscribe { isActive -> if (!isActive) stopWhenIdle() }
+        // Monitoring outlives the event that started it
+        monitorSub = volumeMonitor.monitoringFinished()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe { checkKeepRunning() }
     }
 
     override fun onDestroy() {
         Timber.v("onDestroy()")
-        contentResolver.unregisterContentObserver(volumeObserver)
+        volumeObserver.unregister()
         if (ApiHelper.hasMarshmallow()) {
             unregisterReceiver(ringerPermission)
         }
         notificationSub.dispose()
         isActiveSub.dispose()
+        monitorSub.dispose()
+        volumeDispatcher.shutdown()
+        // Killed while events were still coalescing, handle them while we still can
+        val flushed = eventCoalescer.flush()
+        if (flushed > 0) Timber.w("Flushed %d pending events while being destroyed.", flushed)
+        eventSub.dispose()
+        Timber.d("Received %d device events, dropped %d while coalescing.", eventCoalescer.receivedCount, eventCoalescer.droppedCount)
+        deviceManager.flush()
+                .subscribeOn(Schedulers.io())
+                .subscribe(
+                        { Timber.d("Flushed device updates, %d writes were coalesced.", deviceManager.coalescedWriteCount) },
+                        { e -> Timber.e(e, "Failed to flush device updates.") }
+                )
+        eventLanes.shutdown()
+        eventStageExecutor.shutdown()
+        volumeStageExecutor.shutdown()
         wakelockMan.tryRelease()
         super.onDestroy()
     }
@@ -124,170 +168,21 @@ class BlueMusicService : Service(), VolumeObserver.Callback {
         super.onRebind(intent)
     }
 
-    @SuppressLint("ThrowableNotAtBeginning")
     override fun onStartCommand(intent: Intent?, flags: Int, startId: Int): Int {
         Timber.v("onStartCommand-STARTED(intent=%s, flags=%d, startId=%d)", intent, flags, startId)
+        val startedAt = connectTracer.now()
         serviceHelper.start()
         if (intent == null) {
             Timber.w("Intent was null")
-            serviceHelper.stop()
+            stopWhenIdle()
         } else if (intent.hasExtra(BluetoothEventReceiver.EXTRA_DEVICE_EVENT)) {
             val event = intent.getParcelableExtra<SourceDevice.Event>(BluetoothEventReceiver.EXTRA_DEVICE_EVENT)!!
-            val retryWithDelay = RetryWithDelay(300, 1000)
-            bluetoothSource.reloadConnectedDevices()
-                    .subscribeOn(eventScheduler)
-                    .observeOn(eventScheduler)
-                    .map<Map<String, SourceDevice>> { connectedDevices ->
-                        if (event.type == SourceDevice.Event.Type.CONNECTED && !connectedDevices.containsKey(event.address)) {
-                            Timber.w("%s not fully connected, retrying (#%d).", event.device.label, retryWithDelay.retryCount)
-                            serviceHelper.updateMessage("${getString(R.string.description_waiting_for_devicex, event.device.label)} (#${retryWithDelay.retryCount})")
-                            throw MissingDeviceException(event)
-                        }
-                        return@map connectedDevices
-                    }
-                    .retryWhen(retryWithDelay)
-                    .flatMap {
-                        deviceManager.devices().firstOrError().map<ManagedDevice> { managedDevices ->
-                            return@map managedDevices[event.address] ?: throw UnmanagedDeviceException(event)
-                        }
-                    }
-                    .map { managedDevice -> ManagedDevice.Action(managedDevice, event.type) }
-                    .flatMap { action ->
-                        return@flatMap when {
-                            action.type == SourceDevice.Event.Type.CONNECTED -> {
-                                serviceHelper.updateMessage(getString(R.string.label_reaction_delay))
-                                var reactionDelay = action.device.actionDelay
-                                if (reactionDelay == null) reactionDelay = Settings.DEFAULT_REACTION_DELAY
-                                Timber.d("Delaying reaction to %s by %d ms.", action, reactionDelay)
-                                Single.timer(reactionDelay, TimeUnit.MILLISECONDS).map { action }
-                            }
-                            else -> Single.just(action)
-                        }
-                    }
-                    .doOnSuccess { action ->
-                        Timber.d("Acting on %s", action)
-                        serviceHelper.updateMessage(getString(R.string.label_status_adjusting_volumes))
-
-                        val newDevice = action.device
-                        val priorityArray = SparseArray<MutableList<EventModule>>()
-                        for ((_, value) in eventModuleMap) {
-                            val priority = value.priority
-                            var list: MutableList<EventModule>? = priorityArray.get(priority)
-                            if (list == null) {
-                                list = ArrayList()
-                                priorityArray.put(priority, list)
-                            }
-                            list.add(value)
-                        }
-
-                        for (i in 0 until priorityArray.size()) {
-                            val currentPriorityModules = priorityArray.get(priorityArray.keyAt(i))
-                            Timber.d("%d event modules at priority %d", currentPriorityModules.size, priorityArray.keyAt(i))
-
-                            val latch = CountDownLatch(currentPriorityModules.size)
-                            for (module in currentPriorityModules) {
-                                Completable
-                                        .fromRunnable {
-                                            Timber.v("Event module %s HANDLE-START", module)
-                                            module.handle(newDevice, event)
-                                            Timber.v("Event module %s HANDLE-STOP", module)
-                                        }
-                                        .subscribeOn(Schedulers.io())
-                                        .doOnSubscribe { disp ->
-                                            Timber.d("Running event module %s", module)
-                                            val comp = onGoingConnections[event.address]
-                                            if (comp != null) {
-                                                Timber.v("Existing CompositeDisposable, adding %s to %s", module, comp)
-                                                comp.add(disp)
-                                            }
-                                        }
-                                        .doFinally {
-                                            latch.countDown()
-                                            Timber.d("Event module %s finished", module)
-                                        }
-                                        .subscribe({ }, { e ->
-                                            Timber.e(e, "Event module error")
-                                        })
-                            }
-                            try {
-                                latch.await()
-                            } catch (e: InterruptedException) {
-                                Timber.w("Was waiting for %d event modules at priority %d but was INTERRUPTED", currentPriorityModules.size, priorityArray.keyAt(i))
-                                break
-                            }
-
-                        }
-                    }
-                    .doOnSubscribe { disposable ->
-                        Timber.d("Subscribed %s", event)
-
-                        if (event.type == SourceDevice.Event.Type.CONNECTED) {
-                            val compositeDisposable = CompositeDisposable()
-                            compositeDisposable.add(disposable)
-                            onGoingConnections[event.address] = compositeDisposable
-                        } else if (event.type == SourceDevice.Event.Type.DISCONNECTED) {
-                            val eventActions = onGoingConnections.remove(event.address)
-                            if (eventActions != null) {
-                                Timber.d("%s disconnected, canceling on-going event (%d actions)", event.address, eventActions.size())
-                                eventActions.dispose()
-                            }
-                        }
-                    }
-                    .doOnDispose { Timber.d("Disposed %s", event) }
-                    .doFinally {
-                        val remove = onGoingConnections.remove(event.address)
-                        Timber.d("%s finished, removed: %s", event.address, remove)
-
-                        // Do we need to keep the service running?
-                        deviceManager.devices().firstOrError().subscribeOn(Schedulers.computation())
-                                .map { deviceMap ->
-                                    Timber.d("Active devices: %s", deviceMap)
-                                    val msgBuilder = StringBuilder()
-                                    var listening = false
-                                    var locking = false
-                                    var waking = false
-                                    for (d in deviceMap.values) {
-                                        if (!d.isActive) continue
-                                        if (d.address == FakeSpeakerDevice.ADDR) continue
-
-                                        if (!listening && settings.isVolumeChangeListenerEnabled) {
-                                            listening = true
-                                            Timber.d("Keep running because we are listening for changes")
-                                            msgBuilder.append(getString(R.string.label_volume_listener))
-                                        }
-                                        if (!locking && d.volumeLock) {
-                                            locking = true
-                                            Timber.d("Keep running because the device wants volume lock: %s", d)
-                                            if (msgBuilder.isNotEmpty()) msgBuilder.append(",\n")
-                                            msgBuilder.append(getString(R.string.label_volume_lock))
-                                        }
-                                        if (!waking && d.keepAwake) {
-                                            waking = true
-                                            Timber.d("Keep running because the device wants keep awake: %s", d)
-                                            if (msgBuilder.isNotEmpty()) msgBuilder.append(",\n")
-                                            msgBuilder.append(getString(R.string.label_keep_awake))
-                                        }
-                                    }
-                                    val keepRunning = listening || locking || waking
-                                    return@map Pair(keepRunning, msgBuilder.toString())
-                                }
-                                .observeOn(AndroidSchedulers.mainThread())
-                                .subscribe { (keepRunning, message) ->
-                                    if (keepRunning) {
-                                        serviceHelper.updateMessage(message)
-                                    } else {
-                                        serviceHelper.stop()
-                                        wakelockMan.tryRelease()
-                                    }
-                                }
-                    }
-                    .subscribe { action: ManagedDevice.Action?, throwable: Throwable? ->
-                        Timber.d("action=%s, throwable=%s", action, throwable)
-                        if (throwable != null && throwable !is UnmanagedDeviceException && throwable !is MissingDeviceException) {
-                            Timber.e(throwable, "Device error")
-                        }
-                    }
-
+            when (event.type) {
+                SourceDevice.Event.Type.CONNECTED -> eventRecorder.connected(event.address)
+                SourceDevice.Event.Type.DISCONNECTED -> eventRecorder.disconnected(event.address)
+            }
+            eventCoalescer.submit(event)
+            connectTracer.record(ConnectTracer.Stage.SERVICE_START, event.address, startedAt)
         } else if (ServiceHelper.STOP_ACTION == intent.action) {
             Timber.d("Stopping service, currently %d on-going events, killing them.", onGoingConnections.size)
             val tmp = HashMap(onGoingConnections)
@@ -296,64 +191,179 @@ class BlueMusicService : Service(), VolumeObserver.Callback {
                 value.dispose()
             }
 
-            serviceHelper.stop()
+            stopWhenIdle()
         } else {
-            serviceHelper.stop()
+            stopWhenIdle()
         }
 
         Timber.v("onStartCommand-END(intent=%s, flags=%d, startId=%d)", intent, flags, startId)
         return START_NOT_STICKY
     }
 
-    override fun onVolumeChanged(id: AudioStream.Id, volume: Int) {
-        Single
-                .create<SparseArray<MutableList<VolumeModule>>> { emitter ->
-                    val priorityArray = SparseArray<MutableList<VolumeModule>>()
-                    for ((_, value) in volumeModuleMap) {
-                        val priority = value.priority
-                        var list: MutableList<VolumeModule>? = priorityArray.get(priority)
-                        if (list == null) {
-                            list = ArrayList()
-                            priorityArray.put(priority, list)
-                        }
-                        list.add(value)
+    @SuppressLint("ThrowableNotAtBeginning")
+    private fun handleEvent(event: SourceDevice.Event) {
+        handlingEvents.incrementAndGet()
+        val eventLane = eventLanes.forKey(event.address)
+        val connectedDevices = when (event.type) {
+            SourceDevice.Event.Type.CONNECTED -> bluetoothSource.awaitConnectionState(event).doOnSubscribe {
+                serviceHelper.updateMessage(getString(R.string.description_waiting_for_devicex, event.device.label))
+            }
+            else -> bluetoothSource.reloadConnectedDevices()
+        }
+        connectedDevices
+                .subscribeOn(eventLane)
+                .observeOn(eventLane)
+                .flatMap {
+                    deviceManager.devices().firstOrError().map<ManagedDevice> { managedDevices ->
+                        return@map managedDevices[event.address] ?: throw UnmanagedDeviceException(event)
                     }
-                    emitter.onSuccess(priorityArray)
                 }
-                .subscribeOn(volumeScheduler).observeOn(volumeScheduler)
-                .subscribe({ priorityArray ->
-                    for (i in 0 until priorityArray.size()) {
-                        val currentPriorityModules = priorityArray.get(priorityArray.keyAt(i))
-                        Timber.d("%d volume modules at priority %d", currentPriorityModules.size, priorityArray.keyAt(i))
-
-                        val latch = CountDownLatch(currentPriorityModules.size)
-                        for (module in currentPriorityModules) {
-                            Completable
-                                    .fromRunnable {
-                                        Timber.v("Volume module %s HANDLE-START", module)
-                                        module.handle(id, volume)
-                                        Timber.v("Volume module %s HANDLE-STOP", module)
-                                    }
-                                    .subscribeOn(Schedulers.io())
-                                    .doFinally {
-                                        latch.countDown()
-                                        Timber.v("Volume module %s finished", module)
-                                    }
-                                    .subscribe({ }, { e ->
-                                        Timber.e(e, "Volume module error")
-                                    })
+                .doOnSuccess { managedDevice -> eventRecorder.device(managedDevice.address, getStoredVolumes(managedDevice)) }
+                .map { managedDevice -> ManagedDevice.Action(managedDevice, event.type) }
+                .flatMap { action ->
+                    return@flatMap when {
+                        action.type == SourceDevice.Event.Type.CONNECTED -> {
+                            serviceHelper.updateMessage(getString(R.string.label_reaction_delay))
+                            var reactionDelay = action.device.actionDelay
+                            if (reactionDelay == null) reactionDelay = Settings.DEFAULT_REACTION_DELAY
+                            Timber.d("Delaying reaction to %s by %d ms.", action, reactionDelay)
+                            Single.defer {
+                                val start = connectTracer.now()
+                                Single.timer(reactionDelay, TimeUnit.MILLISECONDS)
+                                        .doOnSuccess { connectTracer.record(ConnectTracer.Stage.REACTION_DELAY, event.address, start) }
+                                        .map { action }
+                            }
                         }
-                        try {
-                            latch.await()
-                        } catch (e: InterruptedException) {
-                            Timber.w("Was waiting for %d volume modules at priority %d but was INTERRUPTED", currentPriorityModules.size, priorityArray.keyAt(i))
-                            break
+                        else -> Single.just(action)
+                    }
+                }
+                .flatMap { action ->
+                    Timber.d("Acting on %s", action)
+                    serviceHelper.updateMessage(getString(R.string.label_status_adjusting_volumes))
+
+                    eventStageExecutor
+                            .executeAsync(stageTracer(event.address)) { module -> module.handleAsync(action.device, event) }
+                            .doOnComplete { if (action.type == SourceDevice.Event.Type.CONNECTED) connectTracer.finish(event.address) }
+                            .toSingleDefault(action)
+                }
+                .doOnSubscribe { disposable ->
+                    Timber.d("Subscribed %s", event)
+
+                    if (event.type == SourceDevice.Event.Type.CONNECTED) {
+                        val compositeDisposable = CompositeDisposable()
+                        compositeDisposable.add(disposable)
+                        onGoingConnections[event.address] = compositeDisposable
+                    } else if (event.type == SourceDevice.Event.Type.DISCONNECTED) {
+                        val eventActions = onGoingConnections.remove(event.address)
+                        if (eventActions != null) {
+                            Timber.d("%s disconnected, canceling on-going event (%d actions)", event.address, eventActions.size())
+                            eventActions.dispose()
                         }
+                    }
+                }
+                .doOnDispose { Timber.d("Disposed %s", event) }
+                .doFinally {
+                    handlingEvents.decrementAndGet()
+                    val remove = onGoingConnections.remove(event.address)
+                    Timber.d("%s finished, removed: %s", event.address, remove)
 
+                    // Do we need to keep the service running?
+                    checkKeepRunning()
+                }
+                .subscribe { action: ManagedDevice.Action?, throwable: Throwable? ->
+                    Timber.d("action=%s, throwable=%s", action, throwable)
+                    if (throwable != null && throwable !is UnmanagedDeviceException && throwable !is MissingDeviceException) {
+                        Timber.e(throwable, "Device error")
                     }
+                }
+    }
 
-                }, { e ->
-                    Timber.e(e, "Event module error")
-                })
+    /**
+     * Stops the service, unless a device or on-going volume monitoring still needs it.
+     */
+    private fun checkKeepRunning() {
+        deviceManager.devices().firstOrError().subscribeOn(Schedulers.computation())
+                .map { deviceMap ->
+                    Timber.d("Active devices: %s", deviceMap)
+                    val msgBuilder = StringBuilder()
+                    var listening = false
+                    var locking = false
+                    var waking = false
+                    for (d in deviceMap.values) {
+                        if (!d.isActive) continue
+                        if (d.address == FakeSpeakerDevice.ADDR) continue
+
+                        if (!listening && settings.isVolumeChangeListenerEnabled) {
+                            listening = true
+                            Timber.d("Keep running because we are listening for changes")
+                            msgBuilder.append(getString(R.string.label_volume_listener))
+                        }
+                        if (!locking && d.volumeLock) {
+                            locking = true
+                            Timber.d("Keep running because the device wants volume lock: %s", d)
+                            if (msgBuilder.isNotEmpty()) msgBuilder.append(",\n")
+                            msgBuilder.append(getString(R.string.label_volume_lock))
+                        }
+                        if (!waking && d.keepAwake) {
+                            waking = true
+                            Timber.d("Keep running because the device wants keep awake: %s", d)
+                            if (msgBuilder.isNotEmpty()) msgBuilder.append(",\n")
+                            msgBuilder.append(getString(R.string.label_keep_awake))
+                        }
+                    }
+                    val monitoring = volumeMonitor.isMonitoring
+                    if (monitoring) {
+                        Timber.d("Keep running because volumes are still being monitored")
+                        if (msgBuilder.isNotEmpty()) msgBuilder.append(",\n")
+                        msgBuilder.append(getString(R.string.label_volume_monitor))
+                    }
+                    val keepRunning = listening || locking || waking || monitoring
+                    return@map Pair(keepRunning, msgBuilder.toString())
+                }
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe { (keepRunning, message) ->
+                    if (keepRunning) {
+                        serviceHelper.updateMessage(message)
+                    } else {
+                        stopWhenIdle()
+                        wakelockMan.tryRelease()
+                    }
+                }
+    }
+
+    /**
+     * Stops unless device events are still coalescing or being handled.
+     * The last event to finish handling tries again.
+     */
+    private fun stopWhenIdle() {
+        val pending = eventCoalescer.pendingCount
+        val handling = handlingEvents.get()
+        if (pending > 0 || handling > 0) {
+            Timber.d("Not stopping yet, %d events are coalescing, %d are being handled.", pending, handling)
+            return
+        }
+        serviceHelper.stop()
+    }
+
+    private fun stageTracer(address: String) = object : ModuleStageExecutor.TimingListener {
+        override fun onModuleFinished(priority: Int, module: Any, durationNanos: Long) {}
+
+        override fun onStageFinished(priority: Int, moduleCount: Int, durationNanos: Long) {
+            val detail = "priority=$priority, modules=$moduleCount"
+            connectTracer.record(ConnectTracer.Stage.MODULE_STAGE, address, connectTracer.now() - durationNanos, detail)
+        }
+    }
+
+    private fun getStoredVolumes(device: ManagedDevice): Map<AudioStream.Id, Float> {
+        val volumes = LinkedHashMap<AudioStream.Id, Float>()
+        for (type in AudioStream.Type.values()) {
+            if (device.hasVolume(type)) volumes[device.getStreamId(type)] = device.getVolumeOrUnset(type)
+        }
+        return volumes
+    }
+
+    override fun onVolumeChanged(id: AudioStream.Id, volume: Int) {
+        eventRecorder.volumeChanged(id, volume)
+        volumeDispatcher.submit(id, volume)
     }
-}
\ No newline at end of file
+}
@@ -5,6 +5,7 @@ import java.lang.annotation.RetentionPolicy;
 
 import dagger.Subcomponent;
 import eu.darken.bluemusic.main.core.service.modules.EventModuleModule;
+import eu.darken.bluemusic.main.core.service.modules.ModulePlanModule;
 import eu.darken.bluemusic.main.core.service.modules.VolumeModuleModule;
 import eu.darken.mvpbakery.injection.service.ServiceComponent;
 
@@ -13,7 +14,8 @@ import eu.darken.mvpbakery.injection.service.ServiceComponent;
 @Subcomponent(modules = {
         ServiceModule.class,
         EventModuleModule.class,
-        VolumeModuleModule.class
+        VolumeModuleModule.class,
+        ModulePlanModule.class
 })
 public interface BlueMusicServiceComponent extends ServiceComponent<BlueMusicService> {
 
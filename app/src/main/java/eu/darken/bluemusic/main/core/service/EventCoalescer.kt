@@ -0,0 +1,94 @@
+package eu.darken.bluemusic.main.core.service
+
+import eu.darken.bluemusic.bluetooth.core.SourceDevice
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.core.Scheduler
+import io.reactivex.rxjava3.disposables.Disposable
+import io.reactivex.rxjava3.schedulers.Schedulers
+import io.reactivex.rxjava3.subjects.PublishSubject
+import timber.log.Timber
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Collapses bursts of events for the same device into the last one.
+ * An event is only passed on once no newer event for its address arrived within [windowMs].
+ * Events still waiting for their window can be [flush]ed, so stopping doesn't lose them.
+ */
+class EventCoalescer(
+        private val windowMs: Long,
+        private val scheduler: Scheduler = Schedulers.computation()
+) {
+    private class Pending(val event: SourceDevice.Event, val timer: Disposable)
+
+    private val output = PublishSubject.create<SourceDevice.Event>().toSerialized()
+    // Guarded by this
+    private val pending = LinkedHashMap<String, Pending>()
+    private val received = AtomicLong()
+    private val dispatched = AtomicLong()
+
+    val receivedCount: Long
+        get() = received.get()
+
+    val dispatchedCount: Long
+        get() = dispatched.get()
+
+    /**
+     * Superseded by a newer event of the same device.
+     */
+    val droppedCount: Long
+        get() = received.get() - dispatched.get() - pendingCount
+
+    val pendingCount: Int
+        get() = synchronized(this) { pending.size }
+
+    fun submit(event: SourceDevice.Event) {
+        received.incrementAndGet()
+        if (windowMs <= 0) {
+            emit(event)
+            return
+        }
+        synchronized(this) {
+            pending.remove(event.address)?.timer?.dispose()
+            // Can't fire before we put it, fire() needs the lock
+            val timer = scheduler.scheduleDirect({ fire(event) }, windowMs, TimeUnit.MILLISECONDS)
+            pending[event.address] = Pending(event, timer)
+        }
+    }
+
+    private fun fire(event: SourceDevice.Event) {
+        val due = synchronized(this) {
+            if (pending[event.address]?.event === event) pending.remove(event.address) else null
+        }
+        if (due != null) emit(due.event)
+    }
+
+    /**
+     * Passes on all pending events right away.
+     * @return how many events were pending
+     */
+    fun flush(): Int {
+        val events = takePending()
+        for (event in events) emit(event)
+        return events.size
+    }
+
+    private fun takePending(): List<SourceDevice.Event> {
+        val taken = synchronized(this) {
+            val values = ArrayList(pending.values)
+            pending.clear()
+            values
+        }
+        for (item in taken) item.timer.dispose()
+        return taken.map { it.event }
+    }
+
+    private fun emit(event: SourceDevice.Event) {
+        dispatched.incrementAndGet()
+        output.onNext(event)
+    }
+
+    fun events(): Observable<SourceDevice.Event> = output.doOnNext { event ->
+        Timber.d("Coalesced event: %s (received=%d, dropped=%d)", event, receivedCount, droppedCount)
+    }
+}
@@ -0,0 +1,78 @@
+package eu.darken.bluemusic.main.core.service
+
+import io.reactivex.rxjava3.core.Scheduler
+import io.reactivex.rxjava3.schedulers.Schedulers
+import timber.log.Timber
+import java.util.ArrayDeque
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Provides one serialized lane per key (e.g. a device address).
+ * Work submitted to the same lane runs in order, different lanes run in parallel.
+ * At most [maxLanes] lanes are executing at the same time, further lanes wait for a free thread.
+ * A lane only exists while it has work, idle lanes are dropped.
+ */
+class EventLanes(private val name: String, private val maxLanes: Int) {
+
+    private val threadCounter = AtomicInteger()
+    private val pool = ThreadPoolExecutor(
+            maxLanes, maxLanes,
+            30, TimeUnit.SECONDS,
+            LinkedBlockingQueue(),
+            ThreadFactory { runnable -> Thread(runnable, "$name-${threadCounter.incrementAndGet()}") }
+    ).apply { allowCoreThreadTimeOut(true) }
+    // Lane queues are only touched inside compute calls, which are atomic per key.
+    private val lanes = ConcurrentHashMap<String, ArrayDeque<Runnable>>()
+
+    /**
+     * Lanes that are running or have work queued.
+     */
+    val activeLanes: Int
+        get() = lanes.size
+
+    /**
+     * Schedulers of the same key share a lane, no matter when they were obtained.
+     */
+    fun forKey(key: String): Scheduler = Schedulers.from(LaneExecutor(key), true)
+
+    fun shutdown() {
+        Timber.d("%s: Shutting down %d lanes.", name, lanes.size)
+        pool.shutdownNow()
+        lanes.clear()
+    }
+
+    /**
+     * Runs one task at a time on the shared pool.
+     * Each task is submitted separately so a busy lane doesn't starve the others.
+     */
+    private inner class LaneExecutor(private val key: String) : Executor {
+        override fun execute(command: Runnable) {
+            var isNew = false
+            lanes.compute(key) { _, tasks ->
+                (tasks ?: ArrayDeque<Runnable>().also { isNew = true }).apply { add(command) }
+            }
+            if (isNew) {
+                Timber.v("%s: New lane for %s (%d lanes, max %d parallel)", name, key, lanes.size, maxLanes)
+                pool.execute(::runNext)
+            }
+        }
+
+        private fun runNext() {
+            var next: Runnable? = null
+            lanes.computeIfPresent(key) { _, tasks -> tasks.also { next = it.poll() } }
+            try {
+                next?.run()
+            } catch (e: Throwable) {
+                Timber.e(e, "%s: Task failed on lane %s", name, key)
+            }
+            val remaining = lanes.computeIfPresent(key) { _, tasks -> if (tasks.isEmpty()) null else tasks }
+            if (remaining != null) pool.execute(::runNext)
+        }
+    }
+}
@@ -2,6 +2,7 @@ package eu.darken.bluemusic.main.core.service.modules;
 
 import eu.darken.bluemusic.bluetooth.core.SourceDevice;
 import eu.darken.bluemusic.main.core.database.ManagedDevice;
+import io.reactivex.rxjava3.core.Completable;
 
 public abstract class EventModule {
 
@@ -11,6 +12,13 @@ public abstract class EventModule {
 
     public abstract void handle(ManagedDevice device, SourceDevice.Event event);
 
+    /**
+     * Modules that wait for something (e.g. a volume ramp) can override this, to not block a thread meanwhile.
+     */
+    public Completable handleAsync(ManagedDevice device, SourceDevice.Event event) {
+        return Completable.fromAction(() -> handle(device, event));
+    }
+
     /**
      * When should this module run, lower = earlier, higher = later.
      * Modules with the same priority run in parallel
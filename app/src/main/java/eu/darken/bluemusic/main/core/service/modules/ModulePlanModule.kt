@@ -0,0 +1,39 @@
+package eu.darken.bluemusic.main.core.service.modules
+
+import dagger.Module
+import dagger.Provides
+import eu.darken.bluemusic.main.core.service.BlueMusicServiceComponent
+import timber.log.Timber
+
+@Module
+class ModulePlanModule {
+
+    @Provides
+    @BlueMusicServiceComponent.Scope
+    fun eventModulePlan(
+            moduleMap: Map<Class<out EventModule>, @JvmSuppressWildcards EventModule>
+    ): ModulePlan<EventModule> = ModulePlan.build(moduleMap.values) { it.priority }.also {
+        Timber.d("Event module plan: %s", it)
+    }
+
+    @Provides
+    @BlueMusicServiceComponent.Scope
+    fun volumeModulePlan(
+            moduleMap: Map<Class<out VolumeModule>, @JvmSuppressWildcards VolumeModule>
+    ): ModulePlan<VolumeModule> = ModulePlan.build(moduleMap.values) { it.priority }.also {
+        Timber.d("Volume module plan: %s", it)
+    }
+
+    @Provides
+    @BlueMusicServiceComponent.Scope
+    fun eventStageExecutor(plan: ModulePlan<EventModule>): ModuleStageExecutor<EventModule> {
+        // Concurrent connects share this pool, so size it for all modules instead of the largest stage.
+        return ModuleStageExecutor(plan, "EventModules", plan.moduleCount)
+    }
+
+    @Provides
+    @BlueMusicServiceComponent.Scope
+    fun volumeStageExecutor(plan: ModulePlan<VolumeModule>): ModuleStageExecutor<VolumeModule> {
+        return ModuleStageExecutor(plan, "VolumeModules")
+    }
+}
@@ -4,6 +4,7 @@ import dagger.Binds
 import dagger.Module
 import dagger.multibindings.IntoMap
 import eu.darken.bluemusic.main.core.service.modules.volume.VolumeLockModule
+import eu.darken.bluemusic.main.core.service.modules.volume.VolumeMonitorModule
 import eu.darken.bluemusic.main.core.service.modules.volume.VolumeUpdateModule
 
 @Module
@@ -18,4 +19,9 @@ abstract class VolumeModuleModule {
     @IntoMap
     @VolumeModuleKey(VolumeLockModule::class)
     internal abstract fun volumeLock(module: VolumeLockModule): VolumeModule
+
+    @Binds
+    @IntoMap
+    @VolumeModuleKey(VolumeMonitorModule::class)
+    internal abstract fun volumeMonitor(module: VolumeMonitorModule): VolumeModule
 }
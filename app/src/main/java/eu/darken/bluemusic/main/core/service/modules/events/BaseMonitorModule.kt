@@ -2,13 +2,16 @@ package eu.darken.bluemusic.main.core.service.modules.events
 
 import eu.darken.bluemusic.bluetooth.core.SourceDevice
 import eu.darken.bluemusic.main.core.audio.AudioStream
-import eu.darken.bluemusic.main.core.audio.StreamHelper
 import eu.darken.bluemusic.main.core.database.ManagedDevice
 import eu.darken.bluemusic.main.core.service.modules.EventModule
+import eu.darken.bluemusic.main.core.service.modules.volume.VolumeMonitorModule
 import timber.log.Timber
 
+/**
+ * Hands the device's target to the shared [VolumeMonitorModule], which keeps the stream there for the monitoring duration.
+ */
 internal abstract class BaseMonitorModule(
-        private val streamHelper: StreamHelper
+        private val volumeMonitor: VolumeMonitorModule
 ) : EventModule() {
 
     abstract val type: AudioStream.Type
@@ -16,6 +19,10 @@ internal abstract class BaseMonitorModule(
     override fun getPriority(): Int = 20
 
     override fun handle(device: ManagedDevice, event: SourceDevice.Event) {
+        if (event.type == SourceDevice.Event.Type.DISCONNECTED) {
+            volumeMonitor.release(device.address)
+            return
+        }
         if (event.type != SourceDevice.Event.Type.CONNECTED) return
 
         val percentage = device.getVolume(type)
@@ -33,23 +40,10 @@ internal abstract class BaseMonitorModule(
         }
 
         val monitorDuration = device.monitoringDuration
-        Timber.d("Monitor(%s) active for %dms.", type, monitorDuration)
+        Timber.d("Monitor(%s) requested for %dms.", type, monitorDuration)
         if (monitorDuration == null) return
 
-        val targetTime = System.currentTimeMillis() + monitorDuration
-        while (System.currentTimeMillis() < targetTime) {
-            if (streamHelper.changeVolume(device.getStreamId(type), percentage, false, 0)) {
-                Timber.d("Monitor(%s) adjusted volume.", type)
-            }
-
-            try {
-                Thread.sleep(250)
-            } catch (e: InterruptedException) {
-                Timber.w(e)
-                return
-            }
-        }
-        Timber.d("Monitor(%s) finished.", type)
+        volumeMonitor.monitor(device.address, device.getStreamId(type), percentage, monitorDuration)
     }
 
 }
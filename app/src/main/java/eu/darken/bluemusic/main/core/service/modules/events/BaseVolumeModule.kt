@@ -6,51 +6,30 @@ import eu.darken.bluemusic.main.core.audio.StreamHelper
 import eu.darken.bluemusic.main.core.database.ManagedDevice
 import eu.darken.bluemusic.main.core.service.modules.EventModule
 import eu.darken.bluemusic.settings.core.Settings
+import io.reactivex.rxjava3.core.Completable
 import timber.log.Timber
 
 abstract class BaseVolumeModule(
         private val settings: Settings,
-        private val streamHelper: StreamHelper
+        streamHelper: StreamHelper
 ) : EventModule() {
 
+    private val restorer = VolumeRestorer(streamHelper)
+
     abstract val type: AudioStream.Type
 
     override fun handle(device: ManagedDevice, event: SourceDevice.Event) {
-        if (event.type != SourceDevice.Event.Type.CONNECTED) return
+        handleAsync(device, event).blockingAwait()
+    }
 
-        val percentage = device.getVolume(type)
-        Timber.d("Desired %s volume is %s", type, percentage)
-        if (percentage == null) return
+    override fun handleAsync(device: ManagedDevice, event: SourceDevice.Event): Completable = Completable.defer {
+        if (event.type != SourceDevice.Event.Type.CONNECTED) return@defer Completable.complete()
 
         if (!areRequirementsMet()) {
             Timber.d("Requirements not met!")
-            return
-        }
-
-        if (percentage == -1f) {
-            Timber.d("Device %s has no specified target volume yet, skipping adjustments.", device)
-            return
+            return@defer Completable.complete()
         }
 
-        val adjustmentDelay = device.adjustmentDelay ?: Settings.DEFAULT_ADJUSTMENT_DELAY
-
-        if (streamHelper.changeVolume(device.getStreamId(type), percentage, settings.isVolumeAdjustedVisibly, adjustmentDelay)) {
-            Timber.d("Volume(%s) adjusted volume.", type)
-        } else if (device.nudgeVolume) {
-            Timber.d("Volume wasn't changed, but we want to nudge it for this device.")
-            val currentVolume = streamHelper.getCurrentVolume(device.getStreamId(type))
-
-            Timber.v("Current volume is %d and we will lower then raise it.", currentVolume)
-            if (streamHelper.lowerByOne(device.getStreamId(type), true)) {
-                Timber.v("Volume was nudged lower, now nudging higher, to previous value.")
-                Thread.sleep(500)
-                streamHelper.increaseByOne(device.getStreamId(type), true)
-            } else if (streamHelper.increaseByOne(device.getStreamId(type), true)) {
-                Timber.v("Volume was nudged higher, now nudging lower, to previous value.")
-                Thread.sleep(500)
-                streamHelper.lowerByOne(device.getStreamId(type), true)
-            }
-        }
+        restorer.restore(device, type, settings.isVolumeAdjustedVisibly, Settings.DEFAULT_ADJUSTMENT_DELAY, settings.volumeRampCurve)
     }
-
-}
\ No newline at end of file
+}
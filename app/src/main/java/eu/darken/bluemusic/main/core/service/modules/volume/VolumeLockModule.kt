@@ -2,16 +2,17 @@ package eu.darken.bluemusic.main.core.service.modules.volume
 
 import eu.darken.bluemusic.main.core.audio.AudioStream
 import eu.darken.bluemusic.main.core.audio.StreamHelper
-import eu.darken.bluemusic.main.core.database.DeviceManager
+import eu.darken.bluemusic.main.core.database.VolumeLockTable
 import eu.darken.bluemusic.main.core.service.BlueMusicServiceComponent
 import eu.darken.bluemusic.main.core.service.modules.VolumeModule
 import timber.log.Timber
 import javax.inject.Inject
+import kotlin.math.roundToInt
 
 @BlueMusicServiceComponent.Scope
 internal class VolumeLockModule @Inject constructor(
         private val streamHelper: StreamHelper,
-        private val deviceManager: DeviceManager
+        private val volumeLocks: VolumeLockTable
 ) : VolumeModule() {
 
     override fun handle(id: AudioStream.Id, volume: Int) {
@@ -20,21 +21,11 @@ internal class VolumeLockModule @Inject constructor(
             return
         }
 
-        deviceManager.devices()
-                .take(1)
-                .flatMapIterable { it.values }
-                .filter { it.isActive && it.volumeLock && it.getStreamType(id) != null }
-                .subscribe { device ->
-                    val type = device.getStreamType(id)!!
-                    val percentage: Float? = device.getVolume(type)
-                    if (percentage == null || percentage == -1f) {
-                        Timber.d("Device %s has no specified target volume for %s, skipping volume lock.", device, type)
-                        return@subscribe
-                    }
+        val lock = volumeLocks[id] ?: return
+        if (volume == (streamHelper.getMaxVolume(id) * lock.percentage).roundToInt()) return
 
-                    if (streamHelper.changeVolume(device.getStreamId(type), percentage, false, 0)) {
-                        Timber.d("Engaged volume lock for %s and due to %s", type, device)
-                    }
-                }
+        if (streamHelper.changeVolume(id, lock.percentage, false, 0)) {
+            Timber.d("Engaged volume lock for %s and due to %s", lock.type, lock.address)
+        }
     }
 }
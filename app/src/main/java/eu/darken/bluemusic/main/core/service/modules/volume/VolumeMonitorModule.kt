@@ -0,0 +1,153 @@
+package eu.darken.bluemusic.main.core.service.modules.volume
+
+import eu.darken.bluemusic.main.core.audio.AudioStream
+import eu.darken.bluemusic.main.core.audio.StreamHelper
+import eu.darken.bluemusic.main.core.database.DeviceManager
+import eu.darken.bluemusic.main.core.port.Clock
+import eu.darken.bluemusic.main.core.service.BlueMusicServiceComponent
+import eu.darken.bluemusic.main.core.service.modules.VolumeModule
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.disposables.Disposable
+import io.reactivex.rxjava3.schedulers.Schedulers
+import io.reactivex.rxjava3.subjects.PublishSubject
+import timber.log.Timber
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import kotlin.math.roundToInt
+
+/**
+ * Holds a stream at its target volume for a while after a device connected.
+ * Nothing is polled, drifts are corrected when the volume change arrives. One timer ends the monitoring windows.
+ * Route and device changes can move a stream without a volume change we'd see, targets are re-checked on those too.
+ */
+@BlueMusicServiceComponent.Scope
+internal class VolumeMonitorModule @Inject constructor(
+        private val streamHelper: StreamHelper,
+        private val deviceManager: DeviceManager,
+        private val clock: Clock
+) : VolumeModule() {
+
+    private class Target(val address: String, val percentage: Float, val until: Long)
+
+    // Indexed by Id ordinal, guarded by this
+    private val targets = arrayOfNulls<Target>(AudioStream.Id.values().size)
+    private var expiry: Disposable? = null
+    // Only subscribed while there are targets, guarded by this
+    private var recheck: Disposable? = null
+    private val finished = PublishSubject.create<Unit>().toSerialized()
+
+    /**
+     * True while any stream is still being monitored.
+     */
+    val isMonitoring: Boolean
+        get() = synchronized(this) { targets.any { it != null } }
+
+    /**
+     * Emits when the last monitored stream finished or was released.
+     */
+    fun monitoringFinished(): Observable<Unit> = finished
+
+    /**
+     * Applies the target right away and restores it whenever the stream drifts within the next [duration] ms.
+     * Replaces any previous target for this stream.
+     */
+    fun monitor(address: String, id: AudioStream.Id, percentage: Float, duration: Long) {
+        synchronized(this) {
+            targets[id.ordinal] = Target(address, percentage, now() + duration)
+            scheduleExpiry()
+        }
+        Timber.d("Monitor(%s) active for %dms.", id, duration)
+        if (streamHelper.changeVolume(id, percentage, false, 0)) {
+            Timber.d("Monitor(%s) adjusted volume.", id)
+        }
+    }
+
+    /**
+     * Ends monitoring of all streams that belong to this device.
+     */
+    fun release(address: String) {
+        synchronized(this) {
+            for (i in targets.indices) {
+                if (targets[i]?.address == address) {
+                    Timber.d("Monitor(%s) released.", AudioStream.Id.values()[i])
+                    targets[i] = null
+                }
+            }
+            scheduleExpiry()
+        }
+    }
+
+    override fun handle(id: AudioStream.Id, volume: Int) {
+        val target = synchronized(this) { targets[id.ordinal] } ?: return
+        if (now() >= target.until) return
+
+        if (streamHelper.wasUs(id, volume)) return
+        if (volume == (streamHelper.getMaxVolume(id) * target.percentage).roundToInt()) return
+
+        if (streamHelper.changeVolume(id, target.percentage, false, 0)) {
+            Timber.d("Monitor(%s) restored volume after it drifted to %d.", id, volume)
+        }
+    }
+
+    private fun recheckTargets(reason: String) {
+        val now = now()
+        val current = synchronized(this) { targets.copyOf() }
+        for (i in current.indices) {
+            val target = current[i] ?: continue
+            if (now >= target.until) continue
+            val id = AudioStream.Id.values()[i]
+            if (streamHelper.changeVolume(id, target.percentage, false, 0)) {
+                Timber.d("Monitor(%s) restored volume after a %s.", id, reason)
+            }
+        }
+    }
+
+    // Call while holding the lock
+    private fun scheduleExpiry() {
+        expiry?.dispose()
+        expiry = null
+
+        var next = Long.MAX_VALUE
+        for (target in targets) {
+            if (target != null && target.until < next) next = target.until
+        }
+        if (next == Long.MAX_VALUE) {
+            if (recheck != null) {
+                recheck?.dispose()
+                recheck = null
+                finished.onNext(Unit)
+            }
+            return
+        }
+
+        if (recheck == null) {
+            recheck = Observable
+                    .merge(
+                            streamHelper.routeChanges().map { "route change" },
+                            deviceManager.changes().filter { it.affectsActiveDevices() }.map { "device change" }
+                    )
+                    .observeOn(Schedulers.computation())
+                    .subscribe(
+                            { recheckTargets(it) },
+                            { Timber.e(it, "Failed to re-check monitored volumes.") }
+                    )
+        }
+
+        val delay = (next - now()).coerceAtLeast(0)
+        expiry = Schedulers.computation().scheduleDirect({ expire() }, delay, TimeUnit.MILLISECONDS)
+    }
+
+    private fun expire() = synchronized(this) {
+        val now = now()
+        for (i in targets.indices) {
+            val target = targets[i] ?: continue
+            if (now >= target.until) {
+                Timber.d("Monitor(%s) finished.", AudioStream.Id.values()[i])
+                targets[i] = null
+            }
+        }
+        scheduleExpiry()
+    }
+
+    private fun now(): Long = TimeUnit.NANOSECONDS.toMillis(clock.nanoTime())
+}
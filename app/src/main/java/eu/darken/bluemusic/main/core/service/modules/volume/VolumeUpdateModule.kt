@@ -12,31 +12,22 @@ import javax.inject.Inject
 
 @BlueMusicServiceComponent.Scope
 internal class VolumeUpdateModule @Inject constructor(
-        private val streamHelper: StreamHelper,
+        streamHelper: StreamHelper,
         private val settings: Settings,
         private val deviceManager: DeviceManager
 ) : VolumeModule() {
 
+    private val updater = VolumeUpdater(streamHelper)
+
     override fun handle(id: AudioStream.Id, volume: Int) {
         if (!settings.isVolumeChangeListenerEnabled) {
             Timber.v("Volume listener is disabled.")
             return
         }
-        if (streamHelper.wasUs(id, volume)) {
-            Timber.v("Volume change was triggered by us, ignoring it.")
-            return
-        }
 
-        val percentage = streamHelper.getVolumePercentage(id)
         deviceManager.devices()
                 .take(1)
-                .flatMapIterable { it.values }
-                .filter { it.isActive && !it.volumeLock && it.getStreamType(id) != null && it.getVolume(it.getStreamType(id)!!) != null }
-                .map { device ->
-                    device.setVolume(device.getStreamType(id)!!, percentage)
-                    return@map device
-                }
-                .toList()
+                .map { updater.update(id, volume, it.values) }
                 .subscribe { actives ->
                     deviceManager.save(actives)
                             .subscribeOn(Schedulers.computation())
@@ -65,8 +65,8 @@ internal class ManagedDevicesAdapter(private val callback: Callback) : BasicAdap
             val hasExtras = item.launchPkg != null || item.autoPlay || item.volumeLock || item.keepAwake
             ui.extrasContainer.visibility = if (hasExtras) View.VISIBLE else View.GONE
             ui.configIcon.setOnClickListener { v: View? -> callback.onShowConfigScreen(item) }
-            ui.musicContainer.visibility = if (item.getVolume(AudioStream.Type.MUSIC) != null) View.VISIBLE else View.GONE
-            if (item.getVolume(AudioStream.Type.MUSIC) != null) {
+            ui.musicContainer.visibility = if (item.hasVolume(AudioStream.Type.MUSIC)) View.VISIBLE else View.GONE
+            if (item.hasVolume(AudioStream.Type.MUSIC)) {
                 ui.musicSeekbar.max = item.getMaxVolume(AudioStream.Type.MUSIC)
                 ui.musicSeekbar.setOnSeekBarChangeListener(object : OnSeekBarChangeListener {
                     override fun onProgressChanged(seekBar: SeekBar, progress: Int, fromUser: Boolean) {
@@ -81,8 +81,8 @@ internal class ManagedDevicesAdapter(private val callback: Callback) : BasicAdap
                 ui.musicSeekbar.progress = item.getRealVolume(AudioStream.Type.MUSIC)
                 ui.musicCounter.text = ui.musicSeekbar.progress.toString()
             }
-            ui.callContainer.visibility = if (item.getVolume(AudioStream.Type.CALL) != null) View.VISIBLE else View.GONE
-            if (item.getVolume(AudioStream.Type.CALL) != null) {
+            ui.callContainer.visibility = if (item.hasVolume(AudioStream.Type.CALL)) View.VISIBLE else View.GONE
+            if (item.hasVolume(AudioStream.Type.CALL)) {
                 ui.callSeekbar.max = item.getMaxVolume(AudioStream.Type.CALL)
                 ui.callSeekbar.setOnSeekBarChangeListener(object : OnSeekBarChangeListener {
                     override fun onProgressChanged(seekBar: SeekBar, progress: Int, fromUser: Boolean) {
@@ -97,8 +97,8 @@ internal class ManagedDevicesAdapter(private val callback: Callback) : BasicAdap
                 ui.callSeekbar.progress = item.getRealVolume(AudioStream.Type.CALL)
                 ui.callCounter.text = ui.callSeekbar.progress.toString()
             }
-            ui.ringContainer.visibility = if (item.getVolume(AudioStream.Type.RINGTONE) != null) View.VISIBLE else View.GONE
-            if (item.getVolume(AudioStream.Type.RINGTONE) != null) {
+            ui.ringContainer.visibility = if (item.hasVolume(AudioStream.Type.RINGTONE)) View.VISIBLE else View.GONE
+            if (item.hasVolume(AudioStream.Type.RINGTONE)) {
                 ui.ringSeekbar.max = item.getMaxVolume(AudioStream.Type.RINGTONE)
                 ui.ringSeekbar.setOnSeekBarChangeListener(object : OnSeekBarChangeListener {
                     override fun onProgressChanged(seekBar: SeekBar, progress: Int, fromUser: Boolean) {
@@ -116,13 +116,13 @@ internal class ManagedDevicesAdapter(private val callback: Callback) : BasicAdap
             ui.ringPermissionAction.setOnClickListener { v: View? -> ActivityUtil.tryStartActivity(context as Activity, Intent(Settings.ACTION_NOTIFICATION_POLICY_ACCESS_SETTINGS)) }
             val notifMan = context.getSystemService(Context.NOTIFICATION_SERVICE) as NotificationManager
             Check.notNull(notifMan)
-            val needsPermission = ApiHelper.hasMarshmallow() && item.getVolume(AudioStream.Type.RINGTONE) != null && !notifMan.isNotificationPolicyAccessGranted
+            val needsPermission = ApiHelper.hasMarshmallow() && item.hasVolume(AudioStream.Type.RINGTONE) && !notifMan.isNotificationPolicyAccessGranted
             ui.ringPermissionLabel.visibility = if (needsPermission) View.VISIBLE else View.GONE
             ui.ringPermissionAction.visibility = if (needsPermission) View.VISIBLE else View.GONE
             ui.ringSeekbar.visibility = if (needsPermission) View.GONE else View.VISIBLE
             ui.ringCounter.visibility = if (needsPermission) View.GONE else View.VISIBLE
-            ui.notificationContainer.visibility = if (item.getVolume(AudioStream.Type.NOTIFICATION) != null) View.VISIBLE else View.GONE
-            if (item.getVolume(AudioStream.Type.NOTIFICATION) != null) {
+            ui.notificationContainer.visibility = if (item.hasVolume(AudioStream.Type.NOTIFICATION)) View.VISIBLE else View.GONE
+            if (item.hasVolume(AudioStream.Type.NOTIFICATION)) {
                 ui.notificationSeekbar.max = item.getMaxVolume(AudioStream.Type.NOTIFICATION)
                 ui.notificationSeekbar.setOnSeekBarChangeListener(object : OnSeekBarChangeListener {
                     override fun onProgressChanged(seekBar: SeekBar, progress: Int, fromUser: Boolean) {
@@ -143,8 +143,8 @@ internal class ManagedDevicesAdapter(private val callback: Callback) : BasicAdap
             ui.notificationPermissionAction.visibility = if (needsPermission) View.VISIBLE else View.GONE
             ui.notificationSeekbar.visibility = if (needsPermission) View.GONE else View.VISIBLE
             ui.notificationCounter.visibility = if (needsPermission) View.GONE else View.VISIBLE
-            ui.alarmContainer.visibility = if (item.getVolume(AudioStream.Type.ALARM) != null) View.VISIBLE else View.GONE
-            if (item.getVolume(AudioStream.Type.ALARM) != null) {
+            ui.alarmContainer.visibility = if (item.hasVolume(AudioStream.Type.ALARM)) View.VISIBLE else View.GONE
+            if (item.hasVolume(AudioStream.Type.ALARM)) {
                 ui.alarmSeekbar.max = item.getMaxVolume(AudioStream.Type.ALARM)
                 ui.alarmSeekbar.setOnSeekBarChangeListener(object : OnSeekBarChangeListener {
                     override fun onProgressChanged(seekBar: SeekBar, progress: Int, fromUser: Boolean) {
@@ -16,7 +16,9 @@ import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -26,7 +28,9 @@ import eu.darken.bluemusic.BuildConfig;
 import eu.darken.bluemusic.bluetooth.core.BluetoothSource;
 import eu.darken.bluemusic.main.core.audio.AudioStream;
 import eu.darken.bluemusic.main.core.audio.StreamHelper;
+import eu.darken.bluemusic.main.core.database.DeviceChanges;
 import eu.darken.bluemusic.main.core.database.DeviceManager;
+import eu.darken.bluemusic.main.core.database.DeviceSnapshot;
 import eu.darken.bluemusic.main.core.database.ManagedDevice;
 import eu.darken.bluemusic.util.ApiHelper;
 import eu.darken.bluemusic.util.iap.IAPRepo;
@@ -53,6 +57,18 @@ public class ManagedDevicesPresenter extends ComponentPresenter<ManagedDevicesPr
     private Disposable upgradeSub = Disposable.disposed();
     private Disposable bluetoothSub = Disposable.disposed();
 
+    /**
+     * Connected devices first, then the most recently connected ones.
+     */
+    private static final Comparator<ManagedDevice> DEVICE_ORDER = (d1, d2) -> {
+        if (d1.isActive() != d2.isActive()) return d1.isActive() ? -1 : 1;
+        return Long.compare(d2.getLastConnected(), d1.getLastConnected());
+    };
+
+    // Only touched by deviceSub
+    private DeviceSnapshot sortedSnapshot;
+    private List<ManagedDevice> sortedDevices = Collections.emptyList();
+
     private boolean isBatterySavingHintDismissed = false;
     private boolean isAppLaunchHintDismissed = false;
     private boolean isNotificationPermissionDismissed = false;
@@ -106,13 +122,9 @@ public class ManagedDevicesPresenter extends ComponentPresenter<ManagedDevicesPr
                     .observeOn(AndroidSchedulers.mainThread())
                     .subscribe(isProVersion -> onView(v -> v.updateUpgradeState(isProVersion)));
 
-            deviceSub = deviceManager.devices()
+            deviceSub = deviceManager.changes()
                     .subscribeOn(Schedulers.computation())
-                    .map(managedDevices -> {
-                        List<ManagedDevice> sorted = new ArrayList<>(managedDevices.values());
-                        Collections.sort(sorted, (d1, d2) -> Long.compare(d2.getLastConnected(), d1.getLastConnected()));
-                        return sorted;
-                    })
+                    .map(this::applyChanges)
                     .observeOn(AndroidSchedulers.mainThread())
                     .subscribe(devs -> onView(v -> v.displayDevices(devs)));
         } else {
@@ -126,6 +138,36 @@ public class ManagedDevicesPresenter extends ComponentPresenter<ManagedDevicesPr
         checkNotificationPermissions();
     }
 
+    /**
+     * Only re-sorts what changed, unless the changes don't follow the snapshot we sorted last, e.g. after a resubscribe.
+     */
+    private List<ManagedDevice> applyChanges(DeviceChanges changes) {
+        if (sortedSnapshot != changes.getPrevious()) {
+            sortedDevices = new ArrayList<>(changes.getSnapshot().getDevices().values());
+            Collections.sort(sortedDevices, DEVICE_ORDER);
+        } else {
+            final List<ManagedDevice> kept = new ArrayList<>(sortedDevices.size() + changes.getAdded().size());
+            for (ManagedDevice device : sortedDevices) {
+                if (changes.getRemoved().contains(device.getAddress())) continue;
+                if (changes.getChanged().contains(device.getAddress())) continue;
+                kept.add(device);
+            }
+            insertSorted(kept, changes.getAdded(), changes.getSnapshot());
+            insertSorted(kept, changes.getChanged(), changes.getSnapshot());
+            sortedDevices = kept;
+        }
+        sortedSnapshot = changes.getSnapshot();
+        return new ArrayList<>(sortedDevices);
+    }
+
+    private static void insertSorted(List<ManagedDevice> sorted, Set<String> addresses, DeviceSnapshot snapshot) {
+        for (String address : addresses) {
+            final ManagedDevice device = snapshot.getDevices().get(address);
+            final int index = Collections.binarySearch(sorted, device, DEVICE_ORDER);
+            sorted.add(index < 0 ? -index - 1 : index, device);
+        }
+    }
+
     @TargetApi(Build.VERSION_CODES.M)
     private void checkBatterySavingIssue() {
         Intent batterySavingIntent = new Intent();
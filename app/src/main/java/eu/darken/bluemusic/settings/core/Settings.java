@@ -6,10 +6,13 @@ import android.view.KeyEvent;
 
 import javax.inject.Inject;
 
+import eu.darken.bluemusic.main.core.audio.RampCurve;
+
 public class Settings {
     private static final String PREFKEY_VOLUMELISTENER = "core.volume.changelistener";
 
     public static final String PREFKEY_VISIBLE_ADJUSTMENTS = "core.volume.visibleadjustments";
+    private static final String PREFKEY_RAMP_CURVE = "core.volume.rampcurve";
     public static final String PREFKEY_AUTOPLAY_KEYCODE = "core.autoplay.keycode";
     public static final String PREFKEY_SPEAKER_AUTOSAVE = "core.speaker.autosave";
 
@@ -25,6 +28,7 @@ public class Settings {
     private static final String PREFKEY_ADVANCED_EXCLUDE_HEALTHDEVICES = "core.advanced.exclude.healthdevices";
     private static final String PREFKEY_ADVANCED_EXCLUDE_GATT = "core.advanced.exclude.gatt";
     private static final String PREFKEY_ADVANCED_EXCLUDE_GATTSERVER = "core.advanced.exclude.gattserver";
+    private static final String PREFKEY_ADVANCED_EVENT_COALESCING_WINDOW = "core.advanced.event.coalescing.window";
 
     public static final String PREFKEY_BUGREPORTING = "core.bugreporting.enabled";
 
@@ -32,6 +36,7 @@ public class Settings {
     public static final long DEFAULT_REACTION_DELAY = 4000;
     public static final long DEFAULT_MONITORING_DURATION = 4000;
     public static final long DEFAULT_ADJUSTMENT_DELAY = 250;
+    public static final long DEFAULT_EVENT_COALESCING_WINDOW = 500;
     private final SharedPreferences preferences;
 
     @Inject
@@ -52,6 +57,18 @@ public class Settings {
         return preferences.getBoolean(PREFKEY_VISIBLE_ADJUSTMENTS, true);
     }
 
+    /**
+     * @return how the volume moves while it's adjusted step by step
+     */
+    public RampCurve getVolumeRampCurve() {
+        final String curve = preferences.getString(PREFKEY_RAMP_CURVE, RampCurve.LINEAR.name());
+        try {
+            return RampCurve.valueOf(curve);
+        } catch (IllegalArgumentException e) {
+            return RampCurve.LINEAR;
+        }
+    }
+
     public boolean isVolumeChangeListenerEnabled() {
         return preferences.getBoolean(PREFKEY_VOLUMELISTENER, false);
     }
@@ -104,6 +121,13 @@ public class Settings {
         return preferences.getBoolean(PREFKEY_ADVANCED_EXCLUDE_GATTSERVER, false);
     }
 
+    /**
+     * @return how long (ms) to wait for further events of a device before acting on the last one, 0 disables it.
+     */
+    public long getEventCoalescingWindow() {
+        return preferences.getLong(PREFKEY_ADVANCED_EVENT_COALESCING_WINDOW, DEFAULT_EVENT_COALESCING_WINDOW);
+    }
+
 //    public boolean isBatterySavingHintDismissed() {
 //        return preferences.getBoolean(PREFKEY_BATTERYOPTIMIZATIONHINT_DISMISSED, false);
 //    }
@@ -1,16 +1,21 @@
 package eu.darken.bluemusic.settings.ui.advanced;
 
+import android.content.Intent;
 import android.os.Bundle;
 import android.view.MenuItem;
 
 import javax.inject.Inject;
 
+import androidx.annotation.Nullable;
+import androidx.annotation.StringRes;
 import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.fragment.app.Fragment;
+import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 import eu.darken.bluemusic.R;
 import eu.darken.bluemusic.settings.core.Settings;
+import eu.darken.bluemusic.util.ActivityUtil;
 import eu.darken.bluemusic.util.Check;
 import eu.darken.mvpbakery.base.MVPBakery;
 import eu.darken.mvpbakery.base.ViewModelRetainer;
@@ -19,6 +24,11 @@ import eu.darken.mvpbakery.injection.PresenterInjectionCallback;
 
 
 public class AdvancedFragment extends PreferenceFragmentCompat implements AdvancedPresenter.View {
+    private static final String PREFKEY_CONNECT_TRACE = "core.advanced.connecttrace";
+    private static final String PREFKEY_CONNECT_TRACE_EXPORT = "core.advanced.connecttrace.export";
+    private static final String PREFKEY_CONNECT_TRACE_CLEAR = "core.advanced.connecttrace.clear";
+    private static final String PREFKEY_EVENT_TRACE_EXPORT = "core.advanced.eventtrace.export";
+
     @Inject Settings settings;
     @Inject AdvancedPresenter presenter;
 
@@ -53,6 +63,38 @@ public class AdvancedFragment extends PreferenceFragmentCompat implements Advanc
         actionBar.setSubtitle(null);
     }
 
+    @Override
+    public boolean onPreferenceTreeClick(Preference preference) {
+        if (PREFKEY_CONNECT_TRACE_EXPORT.equals(preference.getKey())) {
+            presenter.onExportConnectTrace();
+            return true;
+        } else if (PREFKEY_CONNECT_TRACE_CLEAR.equals(preference.getKey())) {
+            presenter.onClearConnectTrace();
+            return true;
+        } else if (PREFKEY_EVENT_TRACE_EXPORT.equals(preference.getKey())) {
+            presenter.onExportEventTrace();
+            return true;
+        } else {
+            return super.onPreferenceTreeClick(preference);
+        }
+    }
+
+    @Override
+    public void showConnectTrace(@Nullable String summary) {
+        final Preference preference = Check.notNull(findPreference(PREFKEY_CONNECT_TRACE));
+        preference.setSummary(summary != null ? summary : getString(R.string.description_connect_trace_empty));
+        Check.notNull(findPreference(PREFKEY_CONNECT_TRACE_EXPORT)).setEnabled(summary != null);
+    }
+
+    @Override
+    public void shareTrace(@StringRes int title, String trace) {
+        final Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("text/plain");
+        intent.putExtra(Intent.EXTRA_SUBJECT, getString(title));
+        intent.putExtra(Intent.EXTRA_TEXT, trace);
+        ActivityUtil.tryStartActivity(this, Intent.createChooser(intent, getString(title)));
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
@@ -1,17 +1,92 @@
 package eu.darken.bluemusic.settings.ui.advanced;
 
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Locale;
+
 import javax.inject.Inject;
 
+import androidx.annotation.Nullable;
+import androidx.annotation.StringRes;
+import eu.darken.bluemusic.R;
+import eu.darken.bluemusic.main.core.trace.ConnectTracer;
+import eu.darken.bluemusic.main.core.trace.EventTraceRecorder;
 import eu.darken.mvpbakery.base.Presenter;
 import eu.darken.mvpbakery.injection.ComponentPresenter;
+import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import timber.log.Timber;
 
 @AdvancedComponent.Scope
 public class AdvancedPresenter extends ComponentPresenter<AdvancedPresenter.View, AdvancedComponent> {
 
+    private final ConnectTracer connectTracer;
+    private final EventTraceRecorder eventRecorder;
+
     @Inject
-    AdvancedPresenter() {
+    AdvancedPresenter(ConnectTracer connectTracer, EventTraceRecorder eventRecorder) {
+        this.connectTracer = connectTracer;
+        this.eventRecorder = eventRecorder;
+    }
+
+    @Override
+    public void onBindChange(@Nullable View view) {
+        super.onBindChange(view);
+        if (getView() != null) {
+            final List<ConnectTracer.Percentiles> percentiles = connectTracer.getPercentiles();
+            final StringBuilder sb = new StringBuilder();
+            for (ConnectTracer.Percentiles p : percentiles) {
+                if (sb.length() > 0) sb.append('\n');
+                sb.append(String.format(Locale.US, "%s: %.0f / %.0f / %.0f ms (%d)", p.getStage(),
+                        ConnectTracer.millis(p.getP50Nanos()), ConnectTracer.millis(p.getP95Nanos()), ConnectTracer.millis(p.getP99Nanos()),
+                        p.getCount()));
+            }
+            onView(v -> v.showConnectTrace(percentiles.isEmpty() ? null : sb.toString()));
+        }
+    }
+
+    void onExportConnectTrace() {
+        Single
+                .fromCallable(() -> {
+                    final StringWriter writer = new StringWriter();
+                    connectTracer.export(writer);
+                    return writer.toString();
+                })
+                .subscribeOn(Schedulers.computation())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(
+                        trace -> onView(v -> v.shareTrace(R.string.label_connect_trace, trace)),
+                        e -> Timber.e(e, "Failed to export connect trace.")
+                );
+    }
+
+    void onExportEventTrace() {
+        Single
+                .fromCallable(() -> {
+                    final StringWriter writer = new StringWriter();
+                    eventRecorder.getTrace().write(writer);
+                    return writer.toString();
+                })
+                .subscribeOn(Schedulers.computation())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(
+                        trace -> onView(v -> v.shareTrace(R.string.label_event_trace, trace)),
+                        e -> Timber.e(e, "Failed to export event trace.")
+                );
+    }
+
+    void onClearConnectTrace() {
+        connectTracer.clear();
+        onView(v -> v.showConnectTrace(null));
     }
 
     public interface View extends Presenter.View {
+        /**
+         * @param summary p50/p95/p99 per stage, null if nothing was traced yet
+         */
+        void showConnectTrace(@Nullable String summary);
+
+        void shareTrace(@StringRes int title, String trace);
     }
 }
@@ -0,0 +1,13 @@
+package eu.darken.bluemusic.util
+
+import eu.darken.bluemusic.main.core.port.Logger
+import timber.log.Timber
+
+/**
+ * Forwards the core module's logging to Timber.
+ */
+class TimberLogger : Logger {
+    override fun log(priority: Int, t: Throwable?, message: String, vararg args: Any?) {
+        Timber.log(priority, t, message, *args)
+    }
+}
@@ -0,0 +1,169 @@
+package eu.darken.bluemusic.main.core.audio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
+
+import static org.junit.Assert.assertEquals;
+
+public class VolumeObserverTest {
+    private static final int THREADS = 8;
+    private static final int CHANGES = 10_000;
+    private static final int INITIAL_VOLUME = 5;
+
+    private VolumeObserver observer;
+    private ExecutorService pool;
+
+    @Before
+    public void setup() {
+        observer = new VolumeObserver(null, null, new StreamHelper(new FixedAudioBackend()));
+        pool = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void teardown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void sameVolumeFromManyThreadsIsReportedOnce() throws Exception {
+        final AtomicIntegerArray calls = new AtomicIntegerArray(AudioStream.Id.values().length);
+        for (AudioStream.Id id : AudioStream.Id.values()) {
+            observer.addCallback(id, (streamId, volume) -> calls.incrementAndGet(streamId.ordinal()));
+        }
+
+        hammer(() -> {
+            for (int i = 0; i < CHANGES; i++) {
+                observer.onStreamVolume(AudioStream.Id.STREAM_MUSIC.getId(), 7);
+                observer.onStreamVolume(AudioStream.Id.STREAM_ALARM.getId(), INITIAL_VOLUME);
+            }
+        });
+
+        assertEquals(1, calls.get(AudioStream.Id.STREAM_MUSIC.ordinal()));
+        assertEquals(0, calls.get(AudioStream.Id.STREAM_ALARM.ordinal()));
+    }
+
+    @Test
+    public void streamsDontInterfere() throws Exception {
+        final AudioStream.Id[] ids = AudioStream.Id.values();
+        final List<List<Integer>> reported = new ArrayList<>();
+        for (AudioStream.Id id : ids) {
+            final List<Integer> volumes = new CopyOnWriteArrayList<>();
+            reported.add(volumes);
+            observer.addCallback(id, (streamId, volume) -> reported.get(streamId.ordinal()).add(volume));
+        }
+
+        // One thread per stream, each counts its own stream up
+        final List<Future<?>> futures = new ArrayList<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        for (AudioStream.Id id : ids) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                for (int volume = INITIAL_VOLUME + 1; volume <= CHANGES; volume++) {
+                    observer.onStreamVolume(id.getId(), volume);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) future.get(30, TimeUnit.SECONDS);
+
+        for (AudioStream.Id id : ids) {
+            final List<Integer> volumes = reported.get(id.ordinal());
+            assertEquals(CHANGES - INITIAL_VOLUME, volumes.size());
+            for (int i = 0; i < volumes.size(); i++) {
+                assertEquals(INITIAL_VOLUME + 1 + i, (int) volumes.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void registeringWhileChangesArrive() throws Exception {
+        final AtomicIntegerArray last = new AtomicIntegerArray(AudioStream.Id.values().length);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final Future<?> changes = pool.submit(() -> {
+            start.await();
+            for (int i = 0; i < CHANGES; i++) {
+                for (AudioStream.Id id : AudioStream.Id.values()) observer.onStreamVolume(id.getId(), i % 15);
+            }
+            return null;
+        });
+        start.countDown();
+        for (AudioStream.Id id : AudioStream.Id.values()) {
+            observer.addCallback(id, (streamId, volume) -> last.set(streamId.ordinal(), volume));
+        }
+        changes.get(30, TimeUnit.SECONDS);
+
+        // Unknown stream types are ignored
+        observer.onStreamVolume(-1, 3);
+        observer.onStreamVolume(Integer.MAX_VALUE, 3);
+
+        for (AudioStream.Id id : AudioStream.Id.values()) {
+            observer.onStreamVolume(id.getId(), 20);
+            assertEquals(20, last.get(id.ordinal()));
+        }
+    }
+
+    @Test
+    public void missingValueIsReadFromStream() {
+        final AtomicIntegerArray last = new AtomicIntegerArray(AudioStream.Id.values().length);
+        observer.addCallback(AudioStream.Id.STREAM_MUSIC, (streamId, volume) -> last.set(streamId.ordinal(), volume));
+        observer.onStreamVolume(AudioStream.Id.STREAM_MUSIC.getId(), 9);
+        observer.onStreamVolume(AudioStream.Id.STREAM_MUSIC.getId(), -1);
+        assertEquals(INITIAL_VOLUME, last.get(AudioStream.Id.STREAM_MUSIC.ordinal()));
+    }
+
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    private void hammer(Work work) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                work.run();
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) future.get(30, TimeUnit.SECONDS);
+    }
+
+    private static class FixedAudioBackend implements AudioBackend {
+        @Override
+        public int getStreamVolume(int streamType) {
+            return INITIAL_VOLUME;
+        }
+
+        @Override
+        public int getStreamMaxVolume(int streamType) {
+            return 15;
+        }
+
+        @Override
+        public void setStreamVolume(int streamType, int index, int flags) {
+
+        }
+
+        @Override
+        public void setRouteChangeListener(Function0<Unit> listener) {
+
+        }
+    }
+}
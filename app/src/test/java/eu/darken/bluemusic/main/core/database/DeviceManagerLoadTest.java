@@ -0,0 +1,281 @@
+package eu.darken.bluemusic.main.core.database;
+
+import android.bluetooth.BluetoothClass;
+import android.os.Parcel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import eu.darken.bluemusic.bluetooth.core.BluetoothSource;
+import eu.darken.bluemusic.bluetooth.core.DeviceDiff;
+import eu.darken.bluemusic.bluetooth.core.SourceDevice;
+import eu.darken.bluemusic.main.core.audio.AudioBackend;
+import eu.darken.bluemusic.main.core.audio.AudioStream;
+import eu.darken.bluemusic.main.core.audio.StreamHelper;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
+import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Many paired devices and connect storms through the real DeviceManager, without the database.
+ * Checks that only the affected device changes, rebuild times and memory are left to profiling.
+ */
+public class DeviceManagerLoadTest {
+    private static final long SEED = 42;
+
+    private DeviceManager deviceManager;
+
+    @Before
+    public void setup() {
+        deviceManager = newDeviceManager();
+    }
+
+    @Test
+    public void connectStorms() {
+        for (int paired : new int[]{5, 50, 150}) {
+            deviceManager = newDeviceManager();
+            final Random random = new Random(SEED);
+            final Map<String, SourceDevice> pairedDevices = new LinkedHashMap<>();
+            final List<DeviceConfig> configs = new ArrayList<>();
+            for (int i = 0; i < paired; i++) {
+                final TestDevice device = new TestDevice(address(i));
+                pairedDevices.put(device.getAddress(), device);
+                if (i % 3 != 2) configs.add(config(device.getAddress()));
+            }
+            final Map<String, SourceDevice> connected = new HashMap<>();
+            deviceManager.applyUpdate(configs, connected, pairedDevices, COPY);
+
+            for (int storm = 0; storm < 10; storm++) {
+                for (int i = 0; i < paired / 2 + 1; i++) {
+                    final SourceDevice device = new ArrayList<>(pairedDevices.values()).get(random.nextInt(paired));
+                    final boolean connect = !connected.containsKey(device.getAddress());
+                    if (connect) connected.put(device.getAddress(), device);
+                    else connected.remove(device.getAddress());
+
+                    final DeviceConfig config = find(configs, device.getAddress());
+                    final long stamp = config != null ? config.lastConnected : 0;
+                    final DeviceSnapshot before = deviceManager.changes().blockingFirst().getSnapshot();
+                    final DeviceSnapshot after = deviceManager.applyUpdate(configs, new HashMap<>(connected), pairedDevices, COPY);
+
+                    if (config == null) {
+                        assertSame("Unmanaged devices don't change the snapshot", before, after);
+                        continue;
+                    }
+                    final DeviceChanges changes = deviceManager.changes().blockingFirst();
+                    assertEquals(Collections.singleton(device.getAddress()), changes.getChanged());
+                    assertTrue(changes.getAdded().isEmpty());
+                    assertTrue(changes.getRemoved().isEmpty());
+                    assertEquals(connect, after.getDevices().get(device.getAddress()).isActive());
+                    assertNotEquals(0, config.lastConnected);
+                    assertTrue(config.lastConnected >= stamp);
+                }
+            }
+
+            final DeviceSnapshot snapshot = deviceManager.changes().blockingFirst().getSnapshot();
+            assertEquals(configs.size(), snapshot.getDevices().size());
+            for (ManagedDevice device : snapshot.getDevices().values()) {
+                assertEquals(connected.containsKey(device.getAddress()), device.isActive());
+            }
+        }
+    }
+
+    @Test
+    public void lastConnectedIsStampedOnConnectAndDisconnect() {
+        final TestDevice device = new TestDevice(address(0));
+        final Map<String, SourceDevice> paired = Collections.singletonMap(device.getAddress(), device);
+        final DeviceConfig config = config(device.getAddress());
+        final List<DeviceConfig> configs = Collections.singletonList(config);
+
+        deviceManager.applyUpdate(configs, paired, paired, COPY);
+        assertNotEquals(0, config.lastConnected);
+
+        // Updates while it stays connected don't touch it
+        config.lastConnected = 1;
+        final DeviceSnapshot connected = deviceManager.applyUpdate(configs, paired, paired, COPY);
+        assertEquals(1, config.lastConnected);
+        assertSame(connected, deviceManager.applyUpdate(configs, paired, paired, COPY));
+        assertEquals(1, config.lastConnected);
+
+        // The disconnect leaves it at the time the device was last seen
+        final DeviceSnapshot disconnected = deviceManager.applyUpdate(configs, Collections.emptyMap(), paired, COPY);
+        assertTrue(config.lastConnected > 1);
+        assertEquals(config.lastConnected, disconnected.getDevices().get(device.getAddress()).getLastConnected());
+    }
+
+    private static DeviceManager newDeviceManager() {
+        final RealmSource realmSource = new RealmSource(addresses -> { }, Single.never());
+        return new DeviceManager(new FakeBluetoothSource(), new StreamHelper(new FakeAudioBackend()), realmSource);
+    }
+
+    private static String address(int index) {
+        return String.format(Locale.US, "00:00:00:%02X:%02X:%02X", index >> 16, (index >> 8) & 0xFF, index & 0xFF);
+    }
+
+    private static DeviceConfig config(String address) {
+        final DeviceConfig config = new DeviceConfig();
+        config.address = address;
+        config.musicVolume = 0.5f;
+        return config;
+    }
+
+    private static DeviceConfig find(List<DeviceConfig> configs, String address) {
+        for (DeviceConfig config : configs) {
+            if (config.address.equals(address)) return config;
+        }
+        return null;
+    }
+
+    // Stands in for Realm.copyFromRealm()
+    private static final DeviceManager.ConfigAccess COPY = new DeviceManager.ConfigAccess() {
+        @Override
+        public void beforeWrite() {
+
+        }
+
+        @Override
+        public DeviceConfig copy(DeviceConfig config) {
+            final DeviceConfig copy = new DeviceConfig();
+            copy.address = config.address;
+            copy.lastConnected = config.lastConnected;
+            copy.actionDelay = config.actionDelay;
+            copy.adjustmentDelay = config.adjustmentDelay;
+            copy.monitoringDuration = config.monitoringDuration;
+            copy.musicVolume = config.musicVolume;
+            copy.callVolume = config.callVolume;
+            copy.ringVolume = config.ringVolume;
+            copy.notificationVolume = config.notificationVolume;
+            copy.alarmVolume = config.alarmVolume;
+            copy.volumeLock = config.volumeLock;
+            copy.keepAwake = config.keepAwake;
+            copy.nudgeVolume = config.nudgeVolume;
+            copy.autoplay = config.autoplay;
+            copy.launchPkg = config.launchPkg;
+            return copy;
+        }
+    };
+
+    /**
+     * Never emits on its own, updates are applied by the test.
+     */
+    private static class FakeBluetoothSource implements BluetoothSource {
+        @Override
+        public Observable<Map<String, SourceDevice>> pairedDevices() {
+            return Observable.never();
+        }
+
+        @Override
+        public Observable<Map<String, SourceDevice>> connectedDevices() {
+            return Observable.never();
+        }
+
+        @Override
+        public Observable<DeviceDiff> connectedDeviceChanges() {
+            return Observable.never();
+        }
+
+        @Override
+        public Observable<Boolean> isEnabled() {
+            return Observable.never();
+        }
+
+        @Override
+        public Single<Map<String, SourceDevice>> reloadConnectedDevices() {
+            return Single.never();
+        }
+
+        @Override
+        public Single<Map<String, SourceDevice>> awaitConnectionState(SourceDevice.Event event) {
+            return Single.never();
+        }
+    }
+
+    private static class FakeAudioBackend implements AudioBackend {
+        @Override
+        public int getStreamVolume(int streamType) {
+            return 5;
+        }
+
+        @Override
+        public int getStreamMaxVolume(int streamType) {
+            return 15;
+        }
+
+        @Override
+        public void setStreamVolume(int streamType, int index, int flags) {
+
+        }
+
+        @Override
+        public void setRouteChangeListener(Function0<Unit> listener) {
+
+        }
+    }
+
+    private static class TestDevice implements SourceDevice {
+        private final String address;
+
+        TestDevice(String address) {
+            this.address = address;
+        }
+
+        @Override
+        public BluetoothClass getBluetoothClass() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return address;
+        }
+
+        @Override
+        public String getAddress() {
+            return address;
+        }
+
+        @Override
+        public boolean setAlias(String newAlias) {
+            return false;
+        }
+
+        @Override
+        public String getAlias() {
+            return null;
+        }
+
+        @Override
+        public String getLabel() {
+            return address;
+        }
+
+        @Override
+        public AudioStream.Id getStreamId(AudioStream.Type type) {
+            return type == AudioStream.Type.CALL ? AudioStream.Id.STREAM_BLUETOOTH_HANDSFREE : AudioStream.Id.STREAM_MUSIC;
+        }
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+
+        }
+    }
+}
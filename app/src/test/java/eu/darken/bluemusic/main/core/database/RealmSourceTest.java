@@ -0,0 +1,47 @@
+package eu.darken.bluemusic.main.core.database;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.reactivex.rxjava3.core.Single;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RealmSourceTest {
+
+    private final List<Set<String>> cacheUpdates = new ArrayList<>();
+
+    @Test
+    public void failedLoadDoesNotReachCache() {
+        final IOException error = new IOException();
+        final RealmSource source = new RealmSource(addresses -> cacheUpdates.add(new HashSet<>(addresses)), Single.error(error));
+        source.getManagedAddresses().test().assertError(error);
+
+        source.onManagedAdded("00:11");
+        source.onManagedRemoved("00:11");
+
+        assertTrue(cacheUpdates.isEmpty());
+    }
+
+    @Test
+    public void changesAfterLoadReachCache() {
+        final Set<String> loaded = new HashSet<>(Arrays.asList("00:11", "00:22"));
+        final RealmSource source = new RealmSource(addresses -> cacheUpdates.add(new HashSet<>(addresses)), Single.just(loaded));
+
+        source.onManagedAdded("00:33");
+        source.onManagedRemoved("00:11");
+
+        assertEquals(3, cacheUpdates.size());
+        assertEquals(loaded, cacheUpdates.get(0));
+        assertEquals(new HashSet<>(Arrays.asList("00:11", "00:22", "00:33")), cacheUpdates.get(1));
+        assertEquals(new HashSet<>(Arrays.asList("00:22", "00:33")), cacheUpdates.get(2));
+        source.getManagedAddresses().test().assertValue(cacheUpdates.get(2));
+    }
+}
@@ -0,0 +1,118 @@
+package eu.darken.bluemusic.main.core.service;
+
+import android.bluetooth.BluetoothClass;
+import android.os.Parcel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import eu.darken.bluemusic.bluetooth.core.SourceDevice;
+import eu.darken.bluemusic.main.core.audio.AudioStream;
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+
+public class EventCoalescerTest {
+    private static final long WINDOW = 500;
+
+    private final TestScheduler scheduler = new TestScheduler();
+    private EventCoalescer coalescer;
+    private TestObserver<SourceDevice.Event> events;
+
+    @Before
+    public void setup() {
+        coalescer = new EventCoalescer(WINDOW, scheduler);
+        events = coalescer.events().test();
+    }
+
+    @Test
+    public void burstIsCollapsedIntoLastEvent() {
+        coalescer.submit(event("a", SourceDevice.Event.Type.CONNECTED));
+        scheduler.advanceTimeBy(WINDOW - 1, TimeUnit.MILLISECONDS);
+        final SourceDevice.Event last = event("a", SourceDevice.Event.Type.DISCONNECTED);
+        coalescer.submit(last);
+        scheduler.advanceTimeBy(WINDOW - 1, TimeUnit.MILLISECONDS);
+        events.assertNoValues();
+        assertEquals(1, coalescer.getPendingCount());
+
+        scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        events.assertValue(last);
+        assertEquals(0, coalescer.getPendingCount());
+        assertEquals(1, coalescer.getDroppedCount());
+    }
+
+    @Test
+    public void flushPassesOnPendingEvents() {
+        coalescer.submit(event("a", SourceDevice.Event.Type.CONNECTED));
+        coalescer.submit(event("b", SourceDevice.Event.Type.CONNECTED));
+
+        assertEquals(2, coalescer.flush());
+        events.assertValueCount(2);
+        assertEquals(0, coalescer.getPendingCount());
+
+        // Their timers are gone
+        scheduler.advanceTimeBy(WINDOW, TimeUnit.MILLISECONDS);
+        events.assertValueCount(2);
+        assertEquals(0, coalescer.getDroppedCount());
+    }
+
+    private static SourceDevice.Event event(String address, SourceDevice.Event.Type type) {
+        return new SourceDevice.Event(new TestDevice(address), type);
+    }
+
+    private static class TestDevice implements SourceDevice {
+        private final String address;
+
+        TestDevice(String address) {
+            this.address = address;
+        }
+
+        @Override
+        public BluetoothClass getBluetoothClass() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return address;
+        }
+
+        @Override
+        public String getAddress() {
+            return address;
+        }
+
+        @Override
+        public boolean setAlias(String newAlias) {
+            return false;
+        }
+
+        @Override
+        public String getAlias() {
+            return null;
+        }
+
+        @Override
+        public String getLabel() {
+            return address;
+        }
+
+        @Override
+        public AudioStream.Id getStreamId(AudioStream.Type type) {
+            return AudioStream.Id.STREAM_MUSIC;
+        }
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package eu.darken.bluemusic.main.core.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Scheduler;
+
+import static org.junit.Assert.assertEquals;
+
+public class EventLanesTest {
+    private static final int KEYS = 200;
+
+    private EventLanes lanes;
+
+    @Before
+    public void setup() {
+        lanes = new EventLanes("Test", 4);
+    }
+
+    @After
+    public void teardown() {
+        lanes.shutdown();
+    }
+
+    @Test
+    public void idleLanesAreDropped() throws Exception {
+        for (int i = 0; i < KEYS; i++) {
+            final Scheduler lane = lanes.forKey("key" + i);
+            Completable.fromAction(() -> {}).subscribeOn(lane).blockingAwait(5, TimeUnit.SECONDS);
+        }
+        awaitIdle();
+    }
+
+    @Test
+    public void laneStaysSerializedAcrossSchedulers() throws Exception {
+        final List<Integer> order = new CopyOnWriteArrayList<>();
+        final Scheduler first = lanes.forKey("key");
+        final Scheduler second = lanes.forKey("key");
+        final Completable slow = Completable.fromAction(() -> {
+            Thread.sleep(50);
+            order.add(1);
+        }).subscribeOn(first).cache();
+        slow.subscribe();
+        Completable.fromAction(() -> order.add(2)).subscribeOn(second).blockingAwait(5, TimeUnit.SECONDS);
+        slow.blockingAwait(5, TimeUnit.SECONDS);
+
+        assertEquals(2, order.size());
+        assertEquals(1, (int) order.get(0));
+        awaitIdle();
+
+        // A dropped lane is recreated on demand
+        Completable.fromAction(() -> order.add(3)).subscribeOn(first).blockingAwait(5, TimeUnit.SECONDS);
+        assertEquals(3, (int) order.get(2));
+        awaitIdle();
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        // The lane is dropped right after its last task returned
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (lanes.getActiveLanes() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(0, lanes.getActiveLanes());
+    }
+}
@@ -0,0 +1,34 @@
+package eu.darken.bluemusic.benchmarks;
+
+import eu.darken.bluemusic.main.core.audio.AudioBackend;
+import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
+
+/**
+ * Streams without any IPC, so only our own overhead is measured.
+ */
+class InMemoryAudioBackend implements AudioBackend {
+    static final int MAX_VOLUME = 15;
+
+    private final int[] volumes = new int[16];
+
+    @Override
+    public int getStreamVolume(int streamType) {
+        return volumes[streamType];
+    }
+
+    @Override
+    public int getStreamMaxVolume(int streamType) {
+        return MAX_VOLUME;
+    }
+
+    @Override
+    public void setStreamVolume(int streamType, int index, int flags) {
+        volumes[streamType] = index;
+    }
+
+    @Override
+    public void setRouteChangeListener(Function0<Unit> listener) {
+
+    }
+}
@@ -0,0 +1,80 @@
+package eu.darken.bluemusic.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.darken.bluemusic.main.core.port.Clock;
+import eu.darken.bluemusic.main.core.service.modules.ModulePlan;
+import eu.darken.bluemusic.main.core.service.modules.ModuleStageExecutor;
+import kotlin.Unit;
+
+/**
+ * Dispatching one event through all module stages, with modules that return right away.
+ * This is the executor's own overhead, i.e. what each connect and volume change pays on top of the modules.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ModuleDispatchBenchmark {
+
+    static class Module {
+        final int priority;
+        final AtomicLong handled = new AtomicLong();
+
+        Module(int priority) {
+            this.priority = priority;
+        }
+
+        void handle() {
+            handled.incrementAndGet();
+        }
+    }
+
+    // Like the event modules: most at 10, a few monitors at 20
+    @Param({"1", "3"})
+    int stages;
+
+    @Param({"6", "18"})
+    int modules;
+
+    private ModuleStageExecutor<Module> executor;
+
+    @Setup
+    public void setup() {
+        final List<Module> moduleList = new ArrayList<>();
+        for (int i = 0; i < modules; i++) moduleList.add(new Module(10 * (1 + i % stages)));
+        final ModulePlan<Module> plan = ModulePlan.Companion.build(moduleList, module -> module.priority);
+        executor = new ModuleStageExecutor<>(plan, "Benchmark", plan.getModuleCount(), Clock.SYSTEM);
+    }
+
+    @TearDown
+    public void teardown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public void dispatch() {
+        executor.execute(module -> {
+            module.handle();
+            return Unit.INSTANCE;
+        }).blockingAwait();
+    }
+}
@@ -0,0 +1,72 @@
+package eu.darken.bluemusic.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import eu.darken.bluemusic.main.core.database.SnapshotReconciler;
+
+/**
+ * Micro-benchmark of the {@link SnapshotReconciler} alone, the part of a device snapshot rebuild that decides what changed.
+ * Loading the devices and building ManagedDevices is not included, integers stand in for the compared state.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SnapshotReconcilerBenchmark {
+
+    // Test rigs pair up to 150 devices
+    @Param({"5", "50", "150"})
+    int devices;
+
+    private String[] keys;
+    private int[] states;
+    private SnapshotReconciler<Integer, Object> reconciler;
+    private int toggle;
+
+    @Setup
+    public void setup() {
+        keys = new String[devices];
+        states = new int[devices];
+        for (int i = 0; i < devices; i++) keys[i] = String.format("00:11:22:33:44:%02X", i);
+        reconciler = new SnapshotReconciler<>();
+        rebuild();
+    }
+
+    @Benchmark
+    public boolean unchanged() {
+        return rebuild();
+    }
+
+    @Benchmark
+    public boolean oneChanged() {
+        states[toggle++ % devices]++;
+        return rebuild();
+    }
+
+    private boolean rebuild() {
+        final SnapshotReconciler<Integer, Object>.Pass pass = reconciler.newPass();
+        for (int i = 0; i < devices; i++) {
+            final Integer state = pass.getState(keys[i]);
+            if (state != null && state == states[i]) {
+                pass.keep(keys[i]);
+            } else {
+                pass.put(keys[i], states[i], new Object());
+            }
+        }
+        return pass.commit(false);
+    }
+}
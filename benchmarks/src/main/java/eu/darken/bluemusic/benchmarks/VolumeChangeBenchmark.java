@@ -0,0 +1,64 @@
+package eu.darken.bluemusic.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import eu.darken.bluemusic.main.core.audio.AudioStream;
+import eu.darken.bluemusic.main.core.audio.StreamHelper;
+import eu.darken.bluemusic.main.core.service.VolumeDispatcher;
+import io.reactivex.rxjava3.core.Completable;
+
+/**
+ * The per volume change work: setting a volume, recognizing our own change and dispatching a change to the modules.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VolumeChangeBenchmark {
+
+    private StreamHelper streamHelper;
+    private VolumeDispatcher dispatcher;
+    private int volume;
+
+    @Setup
+    public void setup() {
+        streamHelper = new StreamHelper(new InMemoryAudioBackend());
+        dispatcher = new VolumeDispatcher((id, volume) -> Completable.complete());
+    }
+
+    @TearDown
+    public void teardown() {
+        dispatcher.shutdown();
+    }
+
+    @Benchmark
+    public boolean changeVolume() {
+        volume = (volume + 1) % (InMemoryAudioBackend.MAX_VOLUME + 1);
+        return streamHelper.changeVolume(AudioStream.Id.STREAM_MUSIC, (float) volume / InMemoryAudioBackend.MAX_VOLUME, false, 0);
+    }
+
+    @Benchmark
+    public boolean wasUs() {
+        return streamHelper.wasUs(AudioStream.Id.STREAM_MUSIC, volume++ % InMemoryAudioBackend.MAX_VOLUME);
+    }
+
+    @Benchmark
+    public long dispatch() {
+        dispatcher.submit(AudioStream.Id.STREAM_MUSIC, volume++ % InMemoryAudioBackend.MAX_VOLUME);
+        return dispatcher.getDispatchedCount();
+    }
+}
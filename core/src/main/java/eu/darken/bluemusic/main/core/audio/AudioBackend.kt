@@ -0,0 +1,18 @@
+package eu.darken.bluemusic.main.core.audio
+
+/**
+ * The parts of `android.media.AudioManager` that [StreamHelper] needs, so it can run without a device.
+ * Stream types are the raw `AudioManager.STREAM_*` values.
+ */
+interface AudioBackend {
+    fun getStreamVolume(streamType: Int): Int
+
+    fun getStreamMaxVolume(streamType: Int): Int
+
+    fun setStreamVolume(streamType: Int, index: Int, flags: Int)
+
+    /**
+     * Called when audio devices are added or removed, stream limits may have changed then.
+     */
+    fun setRouteChangeListener(listener: (() -> Unit)?)
+}
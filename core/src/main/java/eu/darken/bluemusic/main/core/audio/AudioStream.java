@@ -1,16 +1,17 @@
 package eu.darken.bluemusic.main.core.audio;
 
-import android.media.AudioManager;
-
 
 public interface AudioStream {
+    /**
+     * Ids are the AudioManager.STREAM_* values, which are part of the public API and never change.
+     */
     enum Id {
-        STREAM_MUSIC(AudioManager.STREAM_MUSIC),
+        STREAM_MUSIC(3),
         STREAM_BLUETOOTH_HANDSFREE(6),
-        STREAM_VOICE_CALL(AudioManager.STREAM_VOICE_CALL),
-        STREAM_NOTIFICATION(AudioManager.STREAM_NOTIFICATION),
-        STREAM_RINGTONE(AudioManager.STREAM_RING),
-        STREAM_ALARM(AudioManager.STREAM_ALARM);
+        STREAM_VOICE_CALL(0),
+        STREAM_NOTIFICATION(5),
+        STREAM_RINGTONE(2),
+        STREAM_ALARM(4);
         private final int streamId;
 
         Id(int streamId) {this.streamId = streamId;}
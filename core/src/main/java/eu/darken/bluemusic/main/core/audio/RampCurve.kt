@@ -0,0 +1,24 @@
+package eu.darken.bluemusic.main.core.audio
+
+import kotlin.math.log10
+
+/**
+ * Maps the elapsed fraction of a ramp's duration to the fraction of the volume change that should be applied.
+ */
+enum class RampCurve {
+    LINEAR {
+        override fun apply(fraction: Float): Float = fraction
+    },
+
+    /**
+     * Fast at first, then slower, roughly follows how loudness is perceived.
+     */
+    LOGARITHMIC {
+        override fun apply(fraction: Float): Float = log10(1f + 9f * fraction)
+    },
+    EASE_OUT {
+        override fun apply(fraction: Float): Float = 1f - (1f - fraction) * (1f - fraction)
+    };
+
+    abstract fun apply(fraction: Float): Float
+}
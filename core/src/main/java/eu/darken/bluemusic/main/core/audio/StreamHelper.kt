@@ -0,0 +1,188 @@
+package eu.darken.bluemusic.main.core.audio
+
+import eu.darken.bluemusic.main.core.port.CoreLog
+import eu.darken.bluemusic.main.core.trace.ConnectTracer
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.subjects.PublishSubject
+import java.util.concurrent.atomic.AtomicIntegerArray
+import kotlin.math.abs
+import kotlin.math.roundToInt
+
+
+/**
+ * Sets stream volumes through an [AudioBackend] and keeps track of which changes were our own.
+ */
+class StreamHelper @JvmOverloads constructor(
+        private val audio: AudioBackend,
+        private val tracer: ConnectTracer? = null
+) {
+    // Streams are independent, so each one is only serialized against itself.
+    private val streamLocks = Array(AudioStream.Id.values().size) { Any() }
+    private val lastUs = AtomicIntegerArray(AudioStream.Id.values().size).apply {
+        for (i in 0 until length()) set(i, NONE)
+    }
+    private val inFlight = AtomicIntegerArray(AudioStream.Id.values().size)
+    private val ramper = VolumeRamper(::getCurrentVolume, ::setVolume)
+    private val maxVolumes = AtomicIntegerArray(AudioStream.Id.values().size).apply {
+        for (i in 0 until length()) set(i, NONE)
+    }
+
+    private val routeChanges = PublishSubject.create<Unit>().toSerialized()
+
+    init {
+        audio.setRouteChangeListener {
+            invalidateMaxVolumes()
+            routeChanges.onNext(Unit)
+        }
+    }
+
+    /**
+     * Emits after the audio route changed, max volumes are already invalidated then.
+     */
+    fun routeChanges(): Observable<Unit> = routeChanges
+
+    fun getCurrentVolume(id: AudioStream.Id): Int {
+        return audio.getStreamVolume(id.id)
+    }
+
+    /**
+     * Cached until [invalidateMaxVolumes], the limit can only change with the audio route.
+     */
+    fun getMaxVolume(streamId: AudioStream.Id): Int {
+        val cached = maxVolumes.get(streamId.ordinal)
+        if (cached != NONE) return cached
+        return audio.getStreamMaxVolume(streamId.id).also { maxVolumes.set(streamId.ordinal, it) }
+    }
+
+    fun invalidateMaxVolumes() {
+        CoreLog.v("Invalidating cached max volumes.")
+        for (i in 0 until maxVolumes.length()) maxVolumes.set(i, NONE)
+    }
+
+    private fun setVolume(streamId: AudioStream.Id, volume: Int, flags: Int) {
+        CoreLog.v("setVolume(streamId=%s, volume=%d, flags=%d).", streamId, volume, flags)
+        val index = streamId.ordinal
+        synchronized(streamLocks[index]) {
+            // Recorded before the call, the change notification may arrive before it returns.
+            lastUs.set(index, volume)
+            inFlight.incrementAndGet(index)
+            val start = tracer?.now() ?: 0
+            try {
+                audio.setStreamVolume(streamId.id, volume, flags)
+            } finally {
+                inFlight.decrementAndGet(index)
+                tracer?.record(ConnectTracer.Stage.SET_VOLUME, null, start, streamId.name)
+            }
+        }
+    }
+
+    /**
+     * @return true if this volume was set by us, or we are currently changing this stream
+     */
+    fun wasUs(id: AudioStream.Id, volume: Int): Boolean {
+        return lastUs.get(id.ordinal) == volume || inFlight.get(id.ordinal) > 0
+    }
+
+    fun getVolumePercentage(streamId: AudioStream.Id): Float {
+        return audio.getStreamVolume(streamId.id).toFloat() / getMaxVolume(streamId)
+    }
+
+    fun lowerByOne(streamId: AudioStream.Id, visible: Boolean): Boolean {
+        val current = getCurrentVolume(streamId)
+        val max = getMaxVolume(streamId)
+        CoreLog.v("lowerByOne(streamId=%s, visible=%b): current=%d, max=%d", streamId, visible, current, max)
+
+        if (current == 0) {
+            CoreLog.w("Volume was at 0, can't lower by one more.")
+            return false
+        }
+
+        return changeVolume(streamId, (current - 1f) / max, visible, 0)
+    }
+
+    fun increaseByOne(streamId: AudioStream.Id, visible: Boolean): Boolean {
+        val current = getCurrentVolume(streamId)
+        val max = getMaxVolume(streamId)
+        CoreLog.v("increaseByOne(streamId=%s, visible=%b): current=%d, max=%d", streamId, visible, current, max)
+
+        if (current == max) {
+            CoreLog.w("Volume was at mav, can't increase by one more.")
+            return false
+        }
+
+        return changeVolume(streamId, (current + 1f) / max, visible, 0)
+    }
+
+    /**
+     * @return how many volume steps this stream is away from the percentage
+     */
+    fun getStepsTo(streamId: AudioStream.Id, percent: Float): Int {
+        return abs((getMaxVolume(streamId) * percent).roundToInt() - getCurrentVolume(streamId))
+    }
+
+    /**
+     * Blocks until a ramp (duration > 0) is finished, see [rampVolume] for a non-blocking variant.
+     * Interrupting the calling thread cancels the ramp, the interrupt flag stays set.
+     */
+    @JvmOverloads
+    fun changeVolume(
+            streamId: AudioStream.Id,
+            percent: Float,
+            visible: Boolean,
+            durationMs: Long,
+            curve: RampCurve = RampCurve.LINEAR
+    ): Boolean = try {
+        rampVolume(streamId, percent, visible, durationMs, curve).blockingGet()
+    } catch (e: RuntimeException) {
+        if (e.cause !is InterruptedException) throw e
+        Thread.currentThread().interrupt()
+        CoreLog.w("Interrupted while changing the volume of %s.", streamId)
+        // The ramp already moved the volume, like the old stepping loop did when it was interrupted
+        true
+    }
+
+    /**
+     * Emits true if the volume had to be changed.
+     * Without a duration the volume is set directly, an on-going ramp of this stream is cancelled before that.
+     * @param durationMs of the whole ramp, independent of how many steps it takes
+     * @param curve how the volume moves over that duration
+     */
+    @JvmOverloads
+    fun rampVolume(
+            streamId: AudioStream.Id,
+            percent: Float,
+            visible: Boolean,
+            durationMs: Long,
+            curve: RampCurve = RampCurve.LINEAR
+    ): Single<Boolean> = Single.defer {
+        val currentVolume = getCurrentVolume(streamId)
+        val max = getMaxVolume(streamId)
+        val target = (max * percent).roundToInt()
+        val flags = if (visible) FLAG_SHOW_UI else 0
+
+        CoreLog.v("changeVolume(streamId=%s, percent=%f, visible=%b, duration=%d, curve=%s)", streamId, percent, visible, durationMs, curve)
+
+        if (currentVolume == target) {
+            CoreLog.v("Target volume of %d already set.", target)
+            return@defer Single.just(false)
+        }
+
+        CoreLog.d("Adjusting volume (streamId=%s, target=%d, current=%d, max=%d, visible=%b, duration=%d).", streamId, target, currentVolume, max, visible, durationMs)
+        if (durationMs == 0L) {
+            ramper.cancel(streamId)
+            setVolume(streamId, target, flags)
+            Single.just(true)
+        } else {
+            ramper.ramp(streamId, target, durationMs, curve, flags).toSingleDefault(true)
+        }
+    }
+
+    fun cancelRamp(streamId: AudioStream.Id) = ramper.cancel(streamId)
+
+    companion object {
+        private const val NONE = -1
+        // AudioManager.FLAG_SHOW_UI
+        private const val FLAG_SHOW_UI = 1
+    }
+}
@@ -0,0 +1,136 @@
+package eu.darken.bluemusic.main.core.audio
+
+import eu.darken.bluemusic.main.core.port.Clock
+import eu.darken.bluemusic.main.core.port.CoreLog
+import io.reactivex.rxjava3.core.Completable
+import io.reactivex.rxjava3.core.CompletableEmitter
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import kotlin.math.abs
+import kotlin.math.roundToInt
+
+/**
+ * Ramps stream volumes over time, all ramps share one timer thread.
+ * There is at most one ramp per stream, starting a new one retargets the stream from wherever the old one got to.
+ */
+class VolumeRamper(
+        private val currentVolume: (AudioStream.Id) -> Int,
+        private val applyVolume: (AudioStream.Id, Int, Int) -> Unit,
+        private val timer: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { Thread(it, "VolumeRamper") },
+        private val clock: Clock = Clock.SYSTEM
+) {
+    private val ramps = arrayOfNulls<Ramp>(AudioStream.Id.values().size)
+
+    /**
+     * Completes once the target is reached, or another ramp took over the stream, or the ramp was cancelled.
+     * Disposing it cancels the ramp.
+     */
+    fun ramp(streamId: AudioStream.Id, target: Int, durationMs: Long, curve: RampCurve, flags: Int): Completable = Completable.create { emitter ->
+        val ramp = Ramp(streamId, target, durationMs, curve, flags, emitter)
+        val previous = synchronized(ramps) {
+            val old = ramps[streamId.ordinal]
+            ramps[streamId.ordinal] = ramp
+            old
+        }
+        if (previous != null) {
+            CoreLog.d("Retargeting %s from %d to %d", streamId, previous.target, target)
+            previous.finish()
+        }
+        emitter.setCancellable { ramp.finish() }
+        // Starts after any step of the previous ramp that is still running
+        timer.execute(ramp::start)
+    }
+
+    /**
+     * Returns once no further step of the stream's ramp can be applied.
+     */
+    fun cancel(streamId: AudioStream.Id) {
+        val ramp = synchronized(ramps) { ramps[streamId.ordinal] } ?: return
+        CoreLog.d("Cancelling ramp of %s to %d", streamId, ramp.target)
+        ramp.finish()
+    }
+
+    private inner class Ramp(
+            val streamId: AudioStream.Id,
+            val target: Int,
+            private val durationMs: Long,
+            private val curve: RampCurve,
+            private val flags: Int,
+            private val emitter: CompletableEmitter
+    ) : Runnable {
+        @Volatile private var finished = false
+        @Volatile private var future: ScheduledFuture<*>? = null
+        private var from = 0
+        private var last = 0
+        private var startedAt = 0L
+
+        fun start() {
+            synchronized(this) {
+                if (finished) return
+                from = currentVolume(streamId)
+                last = from
+                val steps = abs(target - from)
+                if (steps == 0 || durationMs <= 0) {
+                    if (steps != 0) applyVolume(streamId, target, flags)
+                    finish()
+                    return
+                }
+                CoreLog.v("Ramping %s from %d to %d over %dms (%s)", streamId, from, target, durationMs, curve)
+                startedAt = clock.nanoTime()
+                // Tick often enough to hit each index, but don't spin for very short ramps
+                val tick = (durationMs / steps / 2).coerceIn(MIN_TICK, MAX_TICK)
+                future = timer.scheduleAtFixedRate(this, 0, tick, TimeUnit.MILLISECONDS)
+            }
+        }
+
+        override fun run() {
+            synchronized(this) {
+                if (finished) return
+                val elapsed = TimeUnit.NANOSECONDS.toMillis(clock.nanoTime() - startedAt)
+                val fraction = (elapsed.toFloat() / durationMs).coerceAtMost(1f)
+                val volume = from + ((target - from) * curve.apply(fraction)).roundToInt()
+                try {
+                    if (volume != last) {
+                        applyVolume(streamId, volume, flags)
+                        last = volume
+                    }
+                } catch (e: Exception) {
+                    CoreLog.e(e, "Ramp step failed for %s", streamId)
+                    fail(e)
+                    return
+                }
+                if (fraction >= 1f) finish()
+            }
+        }
+
+        fun finish() {
+            if (!release()) return
+            emitter.onComplete()
+        }
+
+        private fun fail(error: Throwable) {
+            if (!release()) return
+            emitter.tryOnError(error)
+        }
+
+        private fun release(): Boolean {
+            // Steps run under the ramp's lock, so a step in progress is done once this returns
+            synchronized(this) {
+                synchronized(ramps) {
+                    if (finished) return false
+                    finished = true
+                    if (ramps[streamId.ordinal] === this) ramps[streamId.ordinal] = null
+                }
+            }
+            future?.cancel(false)
+            return true
+        }
+    }
+
+    companion object {
+        private const val MIN_TICK = 10L
+        private const val MAX_TICK = 100L
+    }
+}
@@ -0,0 +1,79 @@
+package eu.darken.bluemusic.main.core.database
+
+/**
+ * Rebuilds versioned snapshots of keyed items.
+ * Items whose state didn't change keep their instance and version, so consumers can tell what actually changed.
+ * Not thread-safe, callers serialize passes.
+ *
+ * @param S what an item was built from, compared on the next pass
+ * @param D the item
+ */
+class SnapshotReconciler<S : Any, D : Any> {
+
+    private class Entry<S, D>(val state: S, val item: D, val version: Long)
+
+    private val entries = HashMap<String, Entry<S, D>>()
+
+    /**
+     * Version of the last committed pass.
+     */
+    var version: Long = 0
+        private set
+
+    fun newPass(): Pass = Pass(version + 1)
+
+    inner class Pass internal constructor(val version: Long) {
+        private val updated = HashMap<String, Entry<S, D>>()
+        val items = HashMap<String, D>()
+        val versions = HashMap<String, Long>()
+        val added = HashSet<String>()
+        val changed = HashSet<String>()
+        val removed = HashSet<String>()
+
+        /**
+         * @return NULL if this key wasn't part of the last snapshot
+         */
+        fun getState(key: String): S? = entries[key]?.state
+
+        fun getItem(key: String): D? = entries[key]?.item
+
+        /**
+         * The key is part of this snapshot with its previous item.
+         */
+        fun keep(key: String) {
+            val entry = entries[key] ?: throw IllegalArgumentException("Unknown key: $key")
+            items[key] = entry.item
+            versions[key] = entry.version
+        }
+
+        /**
+         * The key is part of this snapshot with a new item.
+         */
+        fun put(key: String, state: S, item: D) {
+            updated[key] = Entry(state, item, version)
+            items[key] = item
+            versions[key] = version
+            if (entries.containsKey(key)) changed.add(key) else added.add(key)
+        }
+
+        val isEmpty: Boolean
+            get() = added.isEmpty() && changed.isEmpty() && removed.isEmpty()
+
+        /**
+         * Keys that were neither kept nor put are removed.
+         * @param force commit even if nothing changed
+         * @return false if nothing changed, the pass was dropped then
+         */
+        fun commit(force: Boolean = false): Boolean {
+            for (key in entries.keys) {
+                if (!items.containsKey(key)) removed.add(key)
+            }
+            if (isEmpty && !force) return false
+
+            entries.keys.retainAll(items.keys)
+            entries.putAll(updated)
+            this@SnapshotReconciler.version = version
+            return true
+        }
+    }
+}
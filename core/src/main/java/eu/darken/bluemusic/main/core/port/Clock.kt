@@ -0,0 +1,22 @@
+package eu.darken.bluemusic.main.core.port
+
+/**
+ * Time source of the core, so timings can be controlled off-device.
+ */
+interface Clock {
+    /**
+     * Monotonic, only meaningful as a difference.
+     */
+    fun nanoTime(): Long
+
+    fun currentTimeMillis(): Long
+
+    companion object {
+        @JvmField
+        val SYSTEM: Clock = object : Clock {
+            override fun nanoTime(): Long = System.nanoTime()
+
+            override fun currentTimeMillis(): Long = System.currentTimeMillis()
+        }
+    }
+}
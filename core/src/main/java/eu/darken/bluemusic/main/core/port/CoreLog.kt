@@ -0,0 +1,30 @@
+package eu.darken.bluemusic.main.core.port
+
+/**
+ * Logging of the core module, drops everything until a [Logger] is set.
+ */
+object CoreLog {
+    @Volatile
+    @JvmStatic
+    var logger: Logger? = null
+
+    @JvmStatic
+    fun v(message: String, vararg args: Any?) {
+        logger?.log(Logger.VERBOSE, null, message, *args)
+    }
+
+    @JvmStatic
+    fun d(message: String, vararg args: Any?) {
+        logger?.log(Logger.DEBUG, null, message, *args)
+    }
+
+    @JvmStatic
+    fun w(message: String, vararg args: Any?) {
+        logger?.log(Logger.WARN, null, message, *args)
+    }
+
+    @JvmStatic
+    fun e(t: Throwable?, message: String, vararg args: Any?) {
+        logger?.log(Logger.ERROR, t, message, *args)
+    }
+}
@@ -0,0 +1,16 @@
+package eu.darken.bluemusic.main.core.port
+
+/**
+ * Where the core logs to, priorities are the `android.util.Log` ones.
+ */
+interface Logger {
+    fun log(priority: Int, t: Throwable?, message: String, vararg args: Any?)
+
+    companion object {
+        const val VERBOSE = 2
+        const val DEBUG = 3
+        const val INFO = 4
+        const val WARN = 5
+        const val ERROR = 6
+    }
+}
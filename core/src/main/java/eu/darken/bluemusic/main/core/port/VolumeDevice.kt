@@ -0,0 +1,34 @@
+package eu.darken.bluemusic.main.core.port
+
+import eu.darken.bluemusic.main.core.audio.AudioStream
+
+/**
+ * What the volume logic needs of a managed device, so it runs the same without the database.
+ */
+interface VolumeDevice {
+    val address: String
+
+    val isActive: Boolean
+
+    val volumeLock: Boolean
+
+    val nudgeVolume: Boolean
+
+    /**
+     * Per volume step, NULL if the device uses the default.
+     */
+    val adjustmentDelay: Long?
+
+    fun getVolume(type: AudioStream.Type): Float?
+
+    fun setVolume(type: AudioStream.Type, volume: Float?)
+
+    fun hasVolume(type: AudioStream.Type): Boolean
+
+    fun getStreamId(type: AudioStream.Type): AudioStream.Id
+
+    /**
+     * @return NULL if no mapping exists for this device
+     */
+    fun getStreamType(id: AudioStream.Id): AudioStream.Type?
+}
@@ -0,0 +1,80 @@
+package eu.darken.bluemusic.main.core.service
+
+import eu.darken.bluemusic.main.core.audio.AudioStream
+import eu.darken.bluemusic.main.core.port.CoreLog
+import io.reactivex.rxjava3.core.Completable
+import io.reactivex.rxjava3.disposables.CompositeDisposable
+import io.reactivex.rxjava3.observers.DisposableCompletableObserver
+import java.util.concurrent.atomic.AtomicIntegerArray
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Dispatches volume changes, at most one per stream at a time.
+ * Changes that arrive while a stream is being dispatched are conflated, only the latest one is dispatched afterwards.
+ */
+class VolumeDispatcher(private val dispatch: (AudioStream.Id, Int) -> Completable) {
+    private val pending = AtomicIntegerArray(IDS.size).apply {
+        for (i in 0 until length()) set(i, NONE)
+    }
+    private val running = AtomicIntegerArray(IDS.size)
+    private val subscriptions = CompositeDisposable()
+    private val received = AtomicLong()
+    private val dispatched = AtomicLong()
+
+    val receivedCount: Long
+        get() = received.get()
+
+    val dispatchedCount: Long
+        get() = dispatched.get()
+
+    fun submit(id: AudioStream.Id, volume: Int) {
+        received.incrementAndGet()
+        if (pending.getAndSet(id.ordinal, volume) != NONE) CoreLog.v("Conflated volume change of %s", id)
+        drain(id)
+    }
+
+    private fun drain(id: AudioStream.Id) {
+        val index = id.ordinal
+        while (!subscriptions.isDisposed) {
+            if (!running.compareAndSet(index, 0, 1)) return
+            val volume = pending.getAndSet(index, NONE)
+            if (volume != NONE) {
+                dispatched.incrementAndGet()
+                subscribe(id, volume)
+                return
+            }
+            running.set(index, 0)
+            // A change may have slipped in before we released the stream
+            if (pending.get(index) == NONE) return
+        }
+    }
+
+    private fun subscribe(id: AudioStream.Id, volume: Int) {
+        val observer = object : DisposableCompletableObserver() {
+            override fun onComplete() = finish()
+
+            override fun onError(e: Throwable) {
+                CoreLog.e(e, "Volume dispatch failed for %s", id)
+                finish()
+            }
+
+            private fun finish() {
+                subscriptions.delete(this)
+                running.set(id.ordinal, 0)
+                drain(id)
+            }
+        }
+        subscriptions.add(observer)
+        dispatch(id, volume).subscribe(observer)
+    }
+
+    fun shutdown() {
+        CoreLog.d("Dispatched %d of %d volume changes.", dispatchedCount, receivedCount)
+        subscriptions.dispose()
+    }
+
+    companion object {
+        private val IDS = AudioStream.Id.values()
+        private const val NONE = -1
+    }
+}
@@ -0,0 +1,51 @@
+package eu.darken.bluemusic.main.core.service.modules
+
+/**
+ * Immutable execution plan for a set of modules.
+ * Modules are grouped into stages by priority, stages are ordered from lowest to highest priority.
+ * Built once per service component and reused for every dispatch.
+ */
+class ModulePlan<T : Any> private constructor(
+        private val priorities: IntArray,
+        private val stages: Array<Array<Any>>
+) {
+
+    val stageCount: Int
+        get() = stages.size
+
+    val moduleCount: Int = stages.sumOf { it.size }
+
+    val maxStageSize: Int = stages.maxOfOrNull { it.size } ?: 0
+
+    fun getPriority(stage: Int): Int = priorities[stage]
+
+    fun getStageSize(stage: Int): Int = stages[stage].size
+
+    @Suppress("UNCHECKED_CAST")
+    fun getModule(stage: Int, index: Int): T = stages[stage][index] as T
+
+    override fun toString(): String {
+        val sb = StringBuilder("ModulePlan(")
+        for (i in stages.indices) {
+            if (i > 0) sb.append(", ")
+            sb.append(priorities[i]).append('=').append(stages[i].contentToString())
+        }
+        return sb.append(')').toString()
+    }
+
+    companion object {
+        fun <T : Any> build(modules: Collection<T>, priorityOf: (T) -> Int): ModulePlan<T> {
+            val grouped = modules.groupBy(priorityOf).toSortedMap()
+            val priorities = IntArray(grouped.size)
+            val stages = arrayOfNulls<Array<Any>>(grouped.size)
+            var i = 0
+            for ((priority, stageModules) in grouped) {
+                priorities[i] = priority
+                stages[i] = Array(stageModules.size) { stageModules[it] }
+                i++
+            }
+            @Suppress("UNCHECKED_CAST")
+            return ModulePlan(priorities, stages as Array<Array<Any>>)
+        }
+    }
+}
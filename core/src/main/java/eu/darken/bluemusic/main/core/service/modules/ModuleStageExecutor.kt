@@ -0,0 +1,90 @@
+package eu.darken.bluemusic.main.core.service.modules
+
+import eu.darken.bluemusic.main.core.port.Clock
+import eu.darken.bluemusic.main.core.port.CoreLog
+import io.reactivex.rxjava3.core.Completable
+import io.reactivex.rxjava3.schedulers.Schedulers
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs the stages of a [ModulePlan] one after another without blocking any thread while waiting.
+ * Modules within a stage run in parallel on a bounded worker pool, the next stage is subscribed once all
+ * modules of the current stage completed. Disposing the returned [Completable] interrupts running modules.
+ */
+class ModuleStageExecutor<T : Any>(
+        private val plan: ModulePlan<T>,
+        private val name: String,
+        poolSize: Int = plan.maxStageSize,
+        private val clock: Clock = Clock.SYSTEM
+) {
+
+    interface TimingListener {
+        fun onModuleFinished(priority: Int, module: Any, durationNanos: Long)
+
+        fun onStageFinished(priority: Int, moduleCount: Int, durationNanos: Long)
+    }
+
+    private val threadCounter = AtomicInteger()
+    private val executor: ExecutorService = Executors.newFixedThreadPool(poolSize.coerceAtLeast(1), ThreadFactory { runnable ->
+        Thread(runnable, "$name-${threadCounter.incrementAndGet()}")
+    })
+    private val scheduler = Schedulers.from(executor, true)
+
+    @Volatile var timingListener: TimingListener? = null
+
+    fun execute(action: (T) -> Unit): Completable = executeAsync { module -> Completable.fromAction { action(module) } }
+
+    /**
+     * Like [execute], but a module only occupies a worker while subscribing to its [Completable].
+     */
+    fun executeAsync(action: (T) -> Completable): Completable = executeAsync(null, action)
+
+    /**
+     * @param listener is told about this execution only, in addition to [timingListener]
+     */
+    fun executeAsync(listener: TimingListener?, action: (T) -> Completable): Completable {
+        if (plan.stageCount == 0) return Completable.complete()
+        val stages = ArrayList<Completable>(plan.stageCount)
+        for (stage in 0 until plan.stageCount) stages.add(createStage(stage, listener, action))
+        return Completable.concat(stages)
+    }
+
+    private fun createStage(stage: Int, listener: TimingListener?, action: (T) -> Completable): Completable = Completable.defer {
+        val priority = plan.getPriority(stage)
+        val stageSize = plan.getStageSize(stage)
+        CoreLog.d("%s: %d modules at priority %d", name, stageSize, priority)
+
+        val stageStart = clock.nanoTime()
+        val modules = Array(stageSize) { index -> createModule(priority, plan.getModule(stage, index), listener, action) }
+        Completable.mergeArray(*modules).doOnComplete {
+            val duration = clock.nanoTime() - stageStart
+            CoreLog.d("%s: Priority %d finished after %dms", name, priority, TimeUnit.NANOSECONDS.toMillis(duration))
+            timingListener?.onStageFinished(priority, stageSize, duration)
+            listener?.onStageFinished(priority, stageSize, duration)
+        }
+    }
+
+    private fun createModule(priority: Int, module: T, listener: TimingListener?, action: (T) -> Completable): Completable = Completable
+            .defer {
+                CoreLog.v("%s: Module %s HANDLE-START", name, module)
+                val moduleStart = clock.nanoTime()
+                action(module).doFinally {
+                    val duration = clock.nanoTime() - moduleStart
+                    CoreLog.v("%s: Module %s HANDLE-STOP after %dms", name, module, TimeUnit.NANOSECONDS.toMillis(duration))
+                    timingListener?.onModuleFinished(priority, module, duration)
+                    listener?.onModuleFinished(priority, module, duration)
+                }
+            }
+            .subscribeOn(scheduler)
+            .doOnError { CoreLog.e(it, "%s: Module %s failed", name, module) }
+            .onErrorComplete()
+
+    fun shutdown() {
+        CoreLog.d("%s: Shutting down.", name)
+        executor.shutdownNow()
+    }
+}
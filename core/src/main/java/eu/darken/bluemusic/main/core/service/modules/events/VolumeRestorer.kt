@@ -0,0 +1,74 @@
+package eu.darken.bluemusic.main.core.service.modules.events
+
+import eu.darken.bluemusic.main.core.audio.AudioStream
+import eu.darken.bluemusic.main.core.audio.RampCurve
+import eu.darken.bluemusic.main.core.audio.StreamHelper
+import eu.darken.bluemusic.main.core.port.CoreLog
+import eu.darken.bluemusic.main.core.port.VolumeDevice
+import io.reactivex.rxjava3.core.Completable
+import java.util.concurrent.TimeUnit
+
+/**
+ * Restores the volume a device has stored for one stream type, when it connects.
+ */
+class VolumeRestorer(private val streamHelper: StreamHelper) {
+
+    /**
+     * @param defaultDelay per volume step, if the device has no adjustment delay of its own
+     * @param curve of the ramp, which takes the delay times the steps to the stored volume
+     */
+    @JvmOverloads
+    fun restore(
+            device: VolumeDevice,
+            type: AudioStream.Type,
+            visible: Boolean,
+            defaultDelay: Long,
+            curve: RampCurve = RampCurve.LINEAR
+    ): Completable = Completable.defer {
+        val percentage = device.getVolume(type)
+        CoreLog.d("Desired %s volume is %s", type, percentage)
+        if (percentage == null) return@defer Completable.complete()
+
+        if (percentage == -1f) {
+            CoreLog.d("Device %s has no specified target volume yet, skipping adjustments.", device)
+            return@defer Completable.complete()
+        }
+
+        val streamId = device.getStreamId(type)
+        val adjustmentDelay = device.adjustmentDelay ?: defaultDelay
+        // The device's delay is per step, ramps take a total duration
+        val duration = adjustmentDelay * streamHelper.getStepsTo(streamId, percentage)
+
+        // The ramp runs on the shared ramp timer, disposing this (e.g. on disconnect) cancels it.
+        streamHelper.rampVolume(streamId, percentage, visible, duration, curve)
+                .flatMapCompletable { changed ->
+                    when {
+                        changed -> {
+                            CoreLog.d("Volume(%s) adjusted volume.", type)
+                            Completable.complete()
+                        }
+                        device.nudgeVolume -> nudge(device, type)
+                        else -> Completable.complete()
+                    }
+                }
+    }
+
+    private fun nudge(device: VolumeDevice, type: AudioStream.Type): Completable = Completable.defer {
+        CoreLog.d("Volume wasn't changed, but we want to nudge it for this device.")
+        val streamId = device.getStreamId(type)
+        val currentVolume = streamHelper.getCurrentVolume(streamId)
+
+        CoreLog.v("Current volume is %d and we will lower then raise it.", currentVolume)
+        when {
+            streamHelper.lowerByOne(streamId, true) -> {
+                CoreLog.v("Volume was nudged lower, now nudging higher, to previous value.")
+                Completable.timer(500, TimeUnit.MILLISECONDS).andThen(Completable.fromAction { streamHelper.increaseByOne(streamId, true) })
+            }
+            streamHelper.increaseByOne(streamId, true) -> {
+                CoreLog.v("Volume was nudged higher, now nudging lower, to previous value.")
+                Completable.timer(500, TimeUnit.MILLISECONDS).andThen(Completable.fromAction { streamHelper.lowerByOne(streamId, true) })
+            }
+            else -> Completable.complete()
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package eu.darken.bluemusic.main.core.service.modules.volume
+
+import eu.darken.bluemusic.main.core.audio.AudioStream
+import eu.darken.bluemusic.main.core.audio.StreamHelper
+import eu.darken.bluemusic.main.core.port.CoreLog
+import eu.darken.bluemusic.main.core.port.VolumeDevice
+
+/**
+ * Stores volume changes that weren't ours with the active devices that track the stream.
+ */
+class VolumeUpdater(private val streamHelper: StreamHelper) {
+
+    /**
+     * @return the devices whose stored volume changed, they still have to be saved
+     */
+    fun <T : VolumeDevice> update(id: AudioStream.Id, volume: Int, devices: Collection<T>): List<T> {
+        if (streamHelper.wasUs(id, volume)) {
+            CoreLog.v("Volume change was triggered by us, ignoring it.")
+            return emptyList()
+        }
+
+        val percentage = streamHelper.getVolumePercentage(id)
+        val updated = ArrayList<T>()
+        for (device in devices) {
+            if (!device.isActive || device.volumeLock) continue
+            val type = device.getStreamType(id) ?: continue
+            if (!device.hasVolume(type)) continue
+            device.setVolume(type, percentage)
+            updated.add(device)
+        }
+        return updated
+    }
+}
@@ -0,0 +1,155 @@
+package eu.darken.bluemusic.main.core.trace
+
+import eu.darken.bluemusic.main.core.port.Clock
+import java.io.Writer
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.concurrent.TimeUnit
+
+/**
+ * Records how long each stage between a device connecting and its volumes being restored takes.
+ * A trace is started per device address when the connect is received, spans of that address are placed relative to it.
+ * Spans go into a ring buffer, the oldest ones are dropped once it's full.
+ */
+class ConnectTracer @JvmOverloads constructor(
+        private val capacity: Int = DEFAULT_CAPACITY,
+        private val clock: Clock = Clock.SYSTEM
+) {
+
+    enum class Stage {
+        RECEIVER,
+        SERVICE_START,
+        DEVICE_RELOAD,
+        REACTION_DELAY,
+        MODULE_STAGE,
+        SET_VOLUME,
+        CONNECT_TO_VOLUME
+    }
+
+    class Span(
+            val stage: Stage,
+            val address: String?,
+            val detail: String?,
+            val timestamp: Long,
+            /** Since the start of this address' trace, -1 if there is none */
+            val offsetNanos: Long,
+            val durationNanos: Long
+    )
+
+    class Percentiles(val stage: Stage, val count: Int, val p50Nanos: Long, val p95Nanos: Long, val p99Nanos: Long)
+
+    // Guarded by this
+    private val spans = arrayOfNulls<Span>(capacity)
+    private var next = 0
+    private var size = 0
+    private val traceStarts = HashMap<String, Long>()
+
+    fun now(): Long = clock.nanoTime()
+
+    /**
+     * Starts a new trace for this device, replacing any unfinished one.
+     * @param startNanos from [now]
+     */
+    @JvmOverloads
+    fun begin(address: String, startNanos: Long = now()) {
+        synchronized(this) { traceStarts[address] = startNanos }
+    }
+
+    /**
+     * Records the total time since [begin], ending the trace.
+     */
+    fun finish(address: String) {
+        val end = clock.nanoTime()
+        val start = synchronized(this) { traceStarts.remove(address) } ?: return
+        add(Span(Stage.CONNECT_TO_VOLUME, address, null, clock.currentTimeMillis(), 0, end - start))
+    }
+
+    /**
+     * @param startNanos from [now]
+     */
+    @JvmOverloads
+    fun record(stage: Stage, address: String?, startNanos: Long, detail: String? = null) {
+        val end = clock.nanoTime()
+        val traceStart = if (address != null) synchronized(this) { traceStarts[address] } else null
+        val offset = if (traceStart != null) startNanos - traceStart else -1
+        add(Span(stage, address, detail, clock.currentTimeMillis(), offset, end - startNanos))
+    }
+
+    @Synchronized
+    private fun add(span: Span) {
+        spans[next] = span
+        next = (next + 1) % capacity
+        if (size < capacity) size++
+    }
+
+    /**
+     * Oldest first.
+     */
+    @Synchronized
+    fun getSpans(): List<Span> {
+        val result = ArrayList<Span>(size)
+        val first = (next - size + capacity) % capacity
+        for (i in 0 until size) result.add(spans[(first + i) % capacity]!!)
+        return result
+    }
+
+    /**
+     * Only stages that have spans are included.
+     */
+    fun getPercentiles(): List<Percentiles> {
+        val byStage = getSpans().groupBy { it.stage }
+        val result = ArrayList<Percentiles>()
+        for (stage in Stage.values()) {
+            val stageSpans = byStage[stage] ?: continue
+            val durations = LongArray(stageSpans.size) { stageSpans[it].durationNanos }
+            durations.sort()
+            result.add(Percentiles(stage, durations.size, rank(durations, 50), rank(durations, 95), rank(durations, 99)))
+        }
+        return result
+    }
+
+    @Synchronized
+    fun clear() {
+        spans.fill(null)
+        next = 0
+        size = 0
+        traceStarts.clear()
+    }
+
+    /**
+     * Writes the percentiles followed by all spans as tab separated values, times in ms.
+     */
+    fun export(writer: Writer) {
+        writer.write("stage\tcount\tp50\tp95\tp99\n")
+        for (p in getPercentiles()) {
+            writer.write(String.format(Locale.US, "%s\t%d\t%.1f\t%.1f\t%.1f\n", p.stage, p.count, millis(p.p50Nanos), millis(p.p95Nanos), millis(p.p99Nanos)))
+        }
+        writer.write("\ntime\tstage\taddress\tdetail\toffset\tduration\n")
+        val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US)
+        for (span in getSpans()) {
+            writer.write(String.format(Locale.US, "%s\t%s\t%s\t%s\t%s\t%.1f\n",
+                    dateFormat.format(Date(span.timestamp)),
+                    span.stage,
+                    span.address ?: "",
+                    span.detail ?: "",
+                    if (span.offsetNanos >= 0) String.format(Locale.US, "%.1f", millis(span.offsetNanos)) else "",
+                    millis(span.durationNanos)
+            ))
+        }
+        writer.flush()
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 1024
+
+        // Nearest-rank
+        private fun rank(sorted: LongArray, percentile: Int): Long {
+            val index = Math.ceil(percentile / 100.0 * sorted.size).toInt() - 1
+            return sorted[index.coerceIn(0, sorted.size - 1)]
+        }
+
+        @JvmStatic
+        fun millis(nanos: Long): Double = nanos / TimeUnit.MILLISECONDS.toNanos(1).toDouble()
+    }
+}
@@ -0,0 +1,106 @@
+package eu.darken.bluemusic.main.core.trace
+
+import eu.darken.bluemusic.main.core.audio.AudioStream
+import java.io.BufferedReader
+import java.io.IOException
+import java.io.Reader
+import java.io.Writer
+import java.util.Locale
+
+/**
+ * Device events and volume changes as they reached the service, so they can be replayed off-device.
+ *
+ * One entry per line, `#` starts a comment:
+ * ```
+ * device <address> [<stream>=<percentage> ...]   volumes the device had stored when the trace started
+ * <ms> connect <address>
+ * <ms> disconnect <address>
+ * <ms> volume <stream> <volume>
+ * ```
+ * Times are relative to the start of the trace, streams are [AudioStream.Id] names.
+ */
+class EventTrace(val devices: List<Device>, val entries: List<Entry>) {
+
+    class Device(val address: String, val volumes: Map<AudioStream.Id, Float>)
+
+    class Entry(
+            val timeMillis: Long,
+            val type: Type,
+            val address: String?,
+            val streamId: AudioStream.Id?,
+            val volume: Int
+    ) {
+        enum class Type {
+            CONNECT, DISCONNECT, VOLUME
+        }
+
+        override fun toString(): String = when (type) {
+            Type.VOLUME -> String.format(Locale.US, "%d volume %s %d", timeMillis, streamId, volume)
+            else -> String.format(Locale.US, "%d %s %s", timeMillis, type.name.lowercase(Locale.US), address)
+        }
+
+        companion object {
+            @JvmStatic
+            fun connect(timeMillis: Long, address: String) = Entry(timeMillis, Type.CONNECT, address, null, -1)
+
+            @JvmStatic
+            fun disconnect(timeMillis: Long, address: String) = Entry(timeMillis, Type.DISCONNECT, address, null, -1)
+
+            @JvmStatic
+            fun volume(timeMillis: Long, streamId: AudioStream.Id, volume: Int) = Entry(timeMillis, Type.VOLUME, null, streamId, volume)
+        }
+    }
+
+    fun write(writer: Writer) {
+        for (device in devices) {
+            writer.write("device ")
+            writer.write(device.address)
+            for ((id, percentage) in device.volumes) writer.write(String.format(Locale.US, " %s=%.3f", id, percentage))
+            writer.write("\n")
+        }
+        for (entry in entries) {
+            writer.write(entry.toString())
+            writer.write("\n")
+        }
+        writer.flush()
+    }
+
+    companion object {
+        @JvmStatic
+        @Throws(IOException::class)
+        fun read(reader: Reader): EventTrace {
+            val devices = ArrayList<Device>()
+            val entries = ArrayList<Entry>()
+            val lines = BufferedReader(reader)
+            var lineNumber = 0
+            while (true) {
+                val line = lines.readLine() ?: break
+                lineNumber++
+                val tokens = line.substringBefore('#').trim().split(WHITESPACE).filter { it.isNotEmpty() }
+                if (tokens.isEmpty()) continue
+                try {
+                    if (tokens[0] == "device") {
+                        val volumes = LinkedHashMap<AudioStream.Id, Float>()
+                        for (token in tokens.drop(2)) {
+                            volumes[AudioStream.Id.valueOf(token.substringBefore('='))] = token.substringAfter('=').toFloat()
+                        }
+                        devices.add(Device(tokens[1], volumes))
+                        continue
+                    }
+                    val time = tokens[0].toLong()
+                    entries.add(when (tokens[1]) {
+                        "connect" -> Entry.connect(time, tokens[2])
+                        "disconnect" -> Entry.disconnect(time, tokens[2])
+                        "volume" -> Entry.volume(time, AudioStream.Id.valueOf(tokens[2]), tokens[3].toInt())
+                        else -> throw IllegalArgumentException("Unknown entry type: ${tokens[1]}")
+                    })
+                } catch (e: RuntimeException) {
+                    throw IOException("Invalid trace line $lineNumber: $line", e)
+                }
+            }
+            return EventTrace(devices, entries)
+        }
+
+        private val WHITESPACE = Regex("\\s+")
+    }
+}
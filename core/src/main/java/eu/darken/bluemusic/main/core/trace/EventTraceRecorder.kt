@@ -0,0 +1,100 @@
+package eu.darken.bluemusic.main.core.trace
+
+import eu.darken.bluemusic.main.core.audio.AudioStream
+import eu.darken.bluemusic.main.core.port.Clock
+import java.util.concurrent.TimeUnit
+
+/**
+ * Collects the most recent events as an [EventTrace], the oldest entries are dropped once it's full.
+ */
+class EventTraceRecorder @JvmOverloads constructor(
+        private val capacity: Int = DEFAULT_CAPACITY,
+        private val clock: Clock = Clock.SYSTEM
+) {
+    private class Stored(val timeMillis: Long, val volumes: Map<AudioStream.Id, Float>)
+
+    // Guarded by this, entries are added in time order
+    private val entries = ArrayDeque<EventTrace.Entry>()
+    // Changes of each device's stored volumes, oldest first. Only the last one before the oldest entry is kept.
+    private val stored = LinkedHashMap<String, ArrayDeque<Stored>>()
+    // Retained entries per address
+    private val references = HashMap<String, Int>()
+    private var startNanos = -1L
+
+    @Synchronized
+    fun connected(address: String) = add(EventTrace.Entry.connect(elapsed(), address))
+
+    @Synchronized
+    fun disconnected(address: String) = add(EventTrace.Entry.disconnect(elapsed(), address))
+
+    @Synchronized
+    fun volumeChanged(streamId: AudioStream.Id, volume: Int) = add(EventTrace.Entry.volume(elapsed(), streamId, volume))
+
+    /**
+     * The volumes a device has stored, call whenever one of its events is handled.
+     */
+    @Synchronized
+    fun device(address: String, volumes: Map<AudioStream.Id, Float>) {
+        val history = stored.getOrPut(address) { ArrayDeque() }
+        if (history.lastOrNull()?.volumes == volumes) return
+        history.addLast(Stored(elapsed(), LinkedHashMap(volumes)))
+    }
+
+    /**
+     * Devices are those with retained entries, with the volumes they had stored when the oldest retained entry happened.
+     */
+    @Synchronized
+    fun getTrace(): EventTrace {
+        // Entries have been dropped, so times start at the first one we still have
+        val offset = entries.firstOrNull()?.timeMillis ?: 0
+        val shifted = entries.map { EventTrace.Entry(it.timeMillis - offset, it.type, it.address, it.streamId, it.volume) }
+
+        val devices = ArrayList<EventTrace.Device>()
+        for ((address, history) in stored) {
+            if (!references.containsKey(address)) continue
+            // Without a change before the oldest entry, the first one we saw is the closest
+            val atStart = history.lastOrNull { it.timeMillis <= offset } ?: history.first()
+            devices.add(EventTrace.Device(address, atStart.volumes))
+        }
+        return EventTrace(devices, shifted)
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        stored.clear()
+        references.clear()
+        startNanos = -1
+    }
+
+    private fun elapsed(): Long {
+        val now = clock.nanoTime()
+        if (startNanos == -1L) startNanos = now
+        return TimeUnit.NANOSECONDS.toMillis(now - startNanos)
+    }
+
+    private fun add(entry: EventTrace.Entry) {
+        val dropped = if (entries.size == capacity) entries.removeFirst() else null
+        dropped?.address?.let { address ->
+            val count = references.getValue(address) - 1
+            if (count == 0) references.remove(address) else references[address] = count
+        }
+        entries.addLast(entry)
+        entry.address?.let { references[it] = (references[it] ?: 0) + 1 }
+        if (dropped != null) trimStored(entries.first().timeMillis)
+    }
+
+    private fun trimStored(oldest: Long) {
+        val devices = stored.entries.iterator()
+        while (devices.hasNext()) {
+            val (address, history) = devices.next()
+            while (history.size > 1 && history[1].timeMillis <= oldest) history.removeFirst()
+            // Nothing of this device is retained, it can't be part of a trace anymore
+            if (!references.containsKey(address) && history.last().timeMillis < oldest) devices.remove()
+        }
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 4096
+    }
+}
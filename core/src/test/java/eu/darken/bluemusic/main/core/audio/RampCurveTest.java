@@ -0,0 +1,36 @@
+package eu.darken.bluemusic.main.core.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RampCurveTest {
+
+    @Test
+    public void curvesStartAndEndWithTheRamp() {
+        for (RampCurve curve : RampCurve.values()) {
+            assertEquals(curve.name(), 0f, curve.apply(0f), 0.0001f);
+            assertEquals(curve.name(), 1f, curve.apply(1f), 0.0001f);
+        }
+    }
+
+    @Test
+    public void curvesOnlyMoveForward() {
+        for (RampCurve curve : RampCurve.values()) {
+            float last = 0f;
+            for (int i = 1; i <= 100; i++) {
+                final float value = curve.apply(i / 100f);
+                assertTrue(curve.name() + " at " + i + "%", value >= last);
+                last = value;
+            }
+        }
+    }
+
+    @Test
+    public void perceptualCurvesFrontLoadTheChange() {
+        assertEquals(0.5f, RampCurve.LINEAR.apply(0.5f), 0.0001f);
+        assertTrue(RampCurve.LOGARITHMIC.apply(0.5f) > 0.5f);
+        assertTrue(RampCurve.EASE_OUT.apply(0.5f) > 0.5f);
+    }
+}
@@ -0,0 +1,135 @@
+package eu.darken.bluemusic.main.core.audio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Restoring all streams on connect, each stream by its own module. Timings are measured in the benchmarks module.
+ */
+public class StreamHelperTest {
+    private static final AudioStream.Id[] STREAMS = {
+            AudioStream.Id.STREAM_MUSIC,
+            AudioStream.Id.STREAM_VOICE_CALL,
+            AudioStream.Id.STREAM_RINGTONE,
+            AudioStream.Id.STREAM_NOTIFICATION,
+            AudioStream.Id.STREAM_ALARM
+    };
+    private static final int MAX_VOLUME = 15;
+    private static final int ROUNDS = 10;
+
+    private FakeAudioBackend backend;
+    private StreamHelper streamHelper;
+    private ExecutorService pool;
+
+    @Before
+    public void setup() {
+        backend = new FakeAudioBackend();
+        streamHelper = new StreamHelper(backend);
+        pool = Executors.newFixedThreadPool(STREAMS.length);
+    }
+
+    @After
+    public void teardown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void differentStreamsAreSetConcurrently() throws Exception {
+        // Each set only returns once every stream is being set, one stream blocking the others breaks the barrier
+        backend.barrier = new CyclicBarrier(STREAMS.length);
+        for (int i = 0; i < ROUNDS; i++) restoreAll(i % 2 == 0 ? 0.2f : 0.8f);
+
+        assertEquals(0, backend.brokenBarriers.get());
+        assertEquals(ROUNDS * STREAMS.length, backend.sets.get());
+        assertFalse("Concurrent calls on the same stream", backend.overlapped);
+        for (AudioStream.Id id : STREAMS) assertEquals(12, backend.getStreamVolume(id.getId()));
+    }
+
+    @Test
+    public void ownChangesAreAttributed() {
+        streamHelper.changeVolume(AudioStream.Id.STREAM_MUSIC, 0.6f, false, 0L);
+        assertTrue(streamHelper.wasUs(AudioStream.Id.STREAM_MUSIC, 9));
+        assertFalse(streamHelper.wasUs(AudioStream.Id.STREAM_MUSIC, 10));
+        assertFalse(streamHelper.wasUs(AudioStream.Id.STREAM_ALARM, 9));
+    }
+
+    @Test
+    public void interruptedChangeKeepsTheInterrupt() {
+        streamHelper.changeVolume(AudioStream.Id.STREAM_MUSIC, 0.2f, false, 0L);
+
+        Thread.currentThread().interrupt();
+        assertTrue(streamHelper.changeVolume(AudioStream.Id.STREAM_MUSIC, 0.8f, false, 10_000L));
+        assertTrue(Thread.interrupted());
+    }
+
+    private void restoreAll(float percent) throws Exception {
+        final List<Future<?>> restores = new ArrayList<>();
+        for (AudioStream.Id id : STREAMS) {
+            restores.add(pool.submit(() -> streamHelper.changeVolume(id, percent, false, 0L)));
+        }
+        for (Future<?> restore : restores) restore.get();
+    }
+
+    private static class FakeAudioBackend implements AudioBackend {
+        private final ConcurrentHashMap<Integer, Integer> volumes = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Integer, AtomicInteger> active = new ConcurrentHashMap<>();
+        final AtomicInteger sets = new AtomicInteger();
+        final AtomicInteger brokenBarriers = new AtomicInteger();
+        volatile CyclicBarrier barrier;
+        volatile boolean overlapped = false;
+
+        @Override
+        public int getStreamVolume(int streamType) {
+            final Integer volume = volumes.get(streamType);
+            return volume != null ? volume : MAX_VOLUME / 2;
+        }
+
+        @Override
+        public int getStreamMaxVolume(int streamType) {
+            return MAX_VOLUME;
+        }
+
+        @Override
+        public void setStreamVolume(int streamType, int index, int flags) {
+            final AtomicInteger calls = active.computeIfAbsent(streamType, type -> new AtomicInteger());
+            if (calls.incrementAndGet() > 1) overlapped = true;
+            try {
+                final CyclicBarrier barrier = this.barrier;
+                if (barrier != null) barrier.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (BrokenBarrierException | TimeoutException e) {
+                brokenBarriers.incrementAndGet();
+            } finally {
+                calls.decrementAndGet();
+            }
+            sets.incrementAndGet();
+            volumes.put(streamType, index);
+        }
+
+        @Override
+        public void setRouteChangeListener(Function0<Unit> listener) {
+
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package eu.darken.bluemusic.main.core.database;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotReconcilerTest {
+    private final SnapshotReconciler<String, Object> reconciler = new SnapshotReconciler<>();
+
+    @Test
+    public void firstPassAddsEverything() {
+        final SnapshotReconciler<String, Object>.Pass pass = reconciler.newPass();
+        assertNull(pass.getState("a"));
+        pass.put("a", "1", new Object());
+        pass.put("b", "1", new Object());
+
+        assertTrue(pass.commit(false));
+        assertEquals(1, reconciler.getVersion());
+        assertEquals(2, pass.getAdded().size());
+        assertTrue(pass.getChanged().isEmpty());
+        assertTrue(pass.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void emptyFirstPassOnlyCommitsIfForced() {
+        assertFalse(reconciler.newPass().commit(false));
+        assertEquals(0, reconciler.getVersion());
+
+        assertTrue(reconciler.newPass().commit(true));
+        assertEquals(1, reconciler.getVersion());
+    }
+
+    @Test
+    public void keptItemsKeepInstanceAndVersion() {
+        final Object itemA = new Object();
+        final SnapshotReconciler<String, Object>.Pass first = reconciler.newPass();
+        first.put("a", "1", itemA);
+        first.put("b", "1", new Object());
+        first.commit(false);
+
+        final SnapshotReconciler<String, Object>.Pass second = reconciler.newPass();
+        assertEquals("1", second.getState("a"));
+        second.keep("a");
+        second.put("b", "2", new Object());
+        assertTrue(second.commit(false));
+
+        assertSame(itemA, second.getItems().get("a"));
+        assertEquals(1L, (long) second.getVersions().get("a"));
+        assertEquals(2L, (long) second.getVersions().get("b"));
+        assertEquals(Collections.singleton("b"), second.getChanged());
+        assertEquals("2", reconciler.newPass().getState("b"));
+    }
+
+    @Test
+    public void unchangedPassIsDropped() {
+        final SnapshotReconciler<String, Object>.Pass first = reconciler.newPass();
+        first.put("a", "1", new Object());
+        first.commit(false);
+
+        final SnapshotReconciler<String, Object>.Pass second = reconciler.newPass();
+        second.keep("a");
+        assertFalse(second.commit(false));
+        assertEquals(1, reconciler.getVersion());
+    }
+
+    @Test
+    public void missingKeysAreRemoved() {
+        final SnapshotReconciler<String, Object>.Pass first = reconciler.newPass();
+        first.put("a", "1", new Object());
+        first.put("b", "1", new Object());
+        first.commit(false);
+
+        final SnapshotReconciler<String, Object>.Pass second = reconciler.newPass();
+        second.keep("a");
+        assertTrue(second.commit(false));
+        assertEquals(Collections.singleton("b"), second.getRemoved());
+
+        final SnapshotReconciler<String, Object>.Pass third = reconciler.newPass();
+        assertNull(third.getState("b"));
+        third.put("b", "1", new Object());
+        third.keep("a");
+        third.commit(false);
+        assertEquals(Collections.singleton("b"), third.getAdded());
+    }
+}
@@ -0,0 +1,115 @@
+package eu.darken.bluemusic.main.core.trace;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import eu.darken.bluemusic.main.core.port.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectTracerTest {
+    private static final String ADDRESS = "00:11:22:33:44:55";
+
+    private final FakeClock clock = new FakeClock();
+    private ConnectTracer tracer;
+
+    @Before
+    public void setup() {
+        tracer = new ConnectTracer(4, clock);
+    }
+
+    @Test
+    public void spansAreRelativeToTheirTrace() {
+        tracer.begin(ADDRESS);
+        clock.advance(10);
+        long start = tracer.now();
+        clock.advance(5);
+        tracer.record(ConnectTracer.Stage.DEVICE_RELOAD, ADDRESS, start);
+        tracer.record(ConnectTracer.Stage.SET_VOLUME, null, start);
+        clock.advance(5);
+        tracer.finish(ADDRESS);
+
+        final List<ConnectTracer.Span> spans = tracer.getSpans();
+        assertEquals(3, spans.size());
+        assertEquals(ms(10), spans.get(0).getOffsetNanos());
+        assertEquals(ms(5), spans.get(0).getDurationNanos());
+        assertEquals(-1, spans.get(1).getOffsetNanos());
+        assertEquals(ConnectTracer.Stage.CONNECT_TO_VOLUME, spans.get(2).getStage());
+        assertEquals(ms(20), spans.get(2).getDurationNanos());
+
+        // Finished traces don't place later spans
+        tracer.record(ConnectTracer.Stage.DEVICE_RELOAD, ADDRESS, tracer.now());
+        assertEquals(-1, tracer.getSpans().get(3).getOffsetNanos());
+    }
+
+    @Test
+    public void oldestSpansAreDropped() {
+        for (int i = 1; i <= 6; i++) {
+            long start = tracer.now();
+            clock.advance(i);
+            tracer.record(ConnectTracer.Stage.MODULE_STAGE, ADDRESS, start);
+        }
+        final List<ConnectTracer.Span> spans = tracer.getSpans();
+        assertEquals(4, spans.size());
+        for (int i = 0; i < spans.size(); i++) assertEquals(ms(i + 3), spans.get(i).getDurationNanos());
+
+        tracer.clear();
+        assertTrue(tracer.getSpans().isEmpty());
+    }
+
+    @Test
+    public void percentilesPerStage() {
+        tracer = new ConnectTracer(200, clock);
+        for (int i = 1; i <= 100; i++) {
+            long start = tracer.now();
+            clock.advance(i);
+            tracer.record(ConnectTracer.Stage.SET_VOLUME, null, start);
+        }
+        final List<ConnectTracer.Percentiles> percentiles = tracer.getPercentiles();
+        assertEquals(1, percentiles.size());
+        assertEquals(100, percentiles.get(0).getCount());
+        assertEquals(ms(50), percentiles.get(0).getP50Nanos());
+        assertEquals(ms(95), percentiles.get(0).getP95Nanos());
+        assertEquals(ms(99), percentiles.get(0).getP99Nanos());
+    }
+
+    @Test
+    public void export() throws Exception {
+        tracer.begin(ADDRESS);
+        clock.advance(250);
+        tracer.finish(ADDRESS);
+
+        final StringWriter writer = new StringWriter();
+        tracer.export(writer);
+        final String[] lines = writer.toString().split("\n");
+        assertEquals("CONNECT_TO_VOLUME\t1\t250.0\t250.0\t250.0", lines[1]);
+        assertTrue(lines[4].endsWith("\tCONNECT_TO_VOLUME\t" + ADDRESS + "\t\t0.0\t250.0"));
+    }
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static class FakeClock implements Clock {
+        private long nanos = 0;
+
+        void advance(long millis) {
+            nanos += ms(millis);
+        }
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package eu.darken.bluemusic.main.core.trace;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Many paired devices and connect storms through the volume pipeline.
+ * Only outcomes are checked, latency isn't measured. DeviceManagerLoadTest covers the device snapshot.
+ */
+public class DeviceLoadTest {
+    private static final long REACTION_DELAY = 4000;
+    private static final long SEED = 42;
+
+    @Test
+    public void connectStorms() throws Exception {
+        for (int paired : new int[]{5, 50, 150}) {
+            final int managed = paired * 2 / 3;
+            final LoadGenerator generator = new LoadGenerator(paired, managed, SEED);
+            final EventTrace trace = generator.generate(10, paired / 2 + 1);
+
+            final TraceReplayer replayer = new TraceReplayer(REACTION_DELAY);
+            final TraceReplayer.Report report;
+            try {
+                report = replayer.replay(trace);
+            } finally {
+                replayer.shutdown();
+            }
+            final Set<String> expected = new HashSet<>();
+            for (String address : generator.getConnected()) {
+                if (report.devices.containsKey(address)) expected.add(address);
+            }
+            assertEquals(report.toString(), expected, report.connected);
+            assertEquals(managed, report.devices.size());
+            assertEquals(report.volumeChanges, report.volumeDispatches);
+            // Devices that stayed connected were all restored
+            assertTrue(report.restores >= expected.size());
+        }
+    }
+
+    @Test
+    public void generatorIsDeterministic() {
+        final EventTrace first = new LoadGenerator(50, 20, SEED).generate(5, 20);
+        final EventTrace second = new LoadGenerator(50, 20, SEED).generate(5, 20);
+        assertEquals(first.getEntries().size(), second.getEntries().size());
+        for (int i = 0; i < first.getEntries().size(); i++) {
+            assertEquals(first.getEntries().get(i).toString(), second.getEntries().get(i).toString());
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package eu.darken.bluemusic.main.core.trace;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import eu.darken.bluemusic.main.core.audio.AudioStream;
+import eu.darken.bluemusic.main.core.port.Clock;
+
+import static eu.darken.bluemusic.main.core.audio.AudioStream.Id.STREAM_BLUETOOTH_HANDSFREE;
+import static eu.darken.bluemusic.main.core.audio.AudioStream.Id.STREAM_MUSIC;
+import static eu.darken.bluemusic.main.core.audio.AudioStream.Id.STREAM_RINGTONE;
+import static eu.darken.bluemusic.main.core.trace.TraceReplayer.INITIAL_VOLUME;
+import static eu.darken.bluemusic.main.core.trace.TraceReplayer.MAX_VOLUME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventTraceReplayTest {
+    private static final long REACTION_DELAY = 4000;
+
+    private TraceReplayer replayer;
+
+    @Before
+    public void setup() {
+        replayer = new TraceReplayer(REACTION_DELAY);
+    }
+
+    @After
+    public void teardown() {
+        replayer.shutdown();
+    }
+
+    @Test
+    public void carIgnition() throws Exception {
+        final TraceReplayer.Report report = replay("car_ignition.trace");
+
+        assertEquals(3, report.restores);
+        assertEquals(3, report.connected.size());
+        // The last restore wins, then the driver's change
+        assertEquals(6, (int) report.volumes.get(STREAM_MUSIC));
+        assertEquals(6, (int) report.volumes.get(STREAM_BLUETOOTH_HANDSFREE));
+        assertEquals(3, (int) report.volumes.get(STREAM_RINGTONE));
+        assertEquals(INITIAL_VOLUME, (int) report.volumes.get(AudioStream.Id.STREAM_ALARM));
+
+        // Stored for every connected device that tracks music
+        assertVolume(report, "00:00:00:00:CA:01", STREAM_MUSIC, 6);
+        assertVolume(report, "00:00:00:00:CA:03", STREAM_MUSIC, 6);
+        assertVolume(report, "00:00:00:00:CA:01", STREAM_BLUETOOTH_HANDSFREE, 12);
+        // Doesn't track music, so it keeps what it had
+        assertVolume(report, "00:00:00:00:CA:02", STREAM_BLUETOOTH_HANDSFREE, 6);
+        assertVolume(report, "00:00:00:00:CA:02", STREAM_RINGTONE, 3);
+    }
+
+    @Test
+    public void headsetFlapping() throws Exception {
+        final TraceReplayer.Report report = replay("headset_flapping.trace");
+
+        // Connections that dropped within the reaction delay never restored anything
+        assertEquals(1, report.restores);
+        assertEquals(Collections.singleton("00:1A:7D:DA:71:13"), report.connected);
+        assertEquals(10, (int) report.volumes.get(STREAM_MUSIC));
+        assertVolume(report, "00:1A:7D:DA:71:13", STREAM_MUSIC, 10);
+    }
+
+    @Test
+    public void rockerStorm() throws Exception {
+        final TraceReplayer.Report report = replay("rocker_storm.trace");
+
+        assertEquals(160, report.events);
+        assertEquals(8, (int) report.volumes.get(STREAM_MUSIC));
+        assertEquals(8, (int) report.volumes.get(STREAM_RINGTONE));
+        assertVolume(report, "00:00:00:00:B0:5E", STREAM_MUSIC, 8);
+        // The device doesn't track the ringtone
+        assertEquals(1, report.devices.get("00:00:00:00:B0:5E").size());
+        // Our restore and every actual change, the repeated restore value isn't one
+        assertEquals(1 + 155 + 3, report.volumeChanges);
+        assertEquals(report.volumeChanges, report.volumeDispatches);
+    }
+
+    @Test
+    public void replayIsDeterministic() throws Exception {
+        final TraceReplayer.Report first = replay("rocker_storm.trace");
+        replayer.shutdown();
+        replayer = new TraceReplayer(REACTION_DELAY);
+        final TraceReplayer.Report second = replay("rocker_storm.trace");
+
+        assertEquals(first.volumes, second.volumes);
+        assertEquals(first.devices, second.devices);
+        assertEquals(first.volumeChanges, second.volumeChanges);
+    }
+
+    @Test
+    public void writeAndRead() throws Exception {
+        final EventTrace trace;
+        try (Reader reader = open("car_ignition.trace")) {
+            trace = EventTrace.read(reader);
+        }
+        final StringWriter writer = new StringWriter();
+        trace.write(writer);
+        final EventTrace copy = EventTrace.read(new StringReader(writer.toString()));
+
+        assertEquals(trace.getDevices().size(), copy.getDevices().size());
+        assertEquals(trace.getDevices().get(1).getVolumes(), copy.getDevices().get(1).getVolumes());
+        assertEquals(trace.getEntries().size(), copy.getEntries().size());
+        for (int i = 0; i < trace.getEntries().size(); i++) {
+            assertEquals(trace.getEntries().get(i).toString(), copy.getEntries().get(i).toString());
+        }
+    }
+
+    @Test
+    public void recorderKeepsLatestEntries() {
+        final ManualClock clock = new ManualClock();
+        final EventTraceRecorder recorder = new EventTraceRecorder(2, clock);
+        recorder.connected("a");
+        clock.millis = 10;
+        recorder.device("a", Collections.singletonMap(STREAM_MUSIC, 0.5f));
+        recorder.device("b", Collections.singletonMap(STREAM_MUSIC, 0.1f));
+        clock.millis = 20;
+        recorder.volumeChanged(STREAM_MUSIC, 3);
+        clock.millis = 30;
+        recorder.device("a", Collections.singletonMap(STREAM_MUSIC, 1f));
+        clock.millis = 40;
+        recorder.disconnected("a");
+        clock.millis = 50;
+        recorder.volumeChanged(STREAM_MUSIC, 4);
+
+        final EventTrace trace = recorder.getTrace();
+        assertEquals(2, trace.getEntries().size());
+        assertEquals(EventTrace.Entry.Type.DISCONNECT, trace.getEntries().get(0).getType());
+        assertEquals(0, trace.getEntries().get(0).getTimeMillis());
+        assertEquals(10, trace.getEntries().get(1).getTimeMillis());
+        // What "a" had stored when the oldest entry happened, "b" has no entries left
+        assertEquals(1, trace.getDevices().size());
+        assertEquals("a", trace.getDevices().get(0).getAddress());
+        assertEquals(1f, trace.getDevices().get(0).getVolumes().get(STREAM_MUSIC), 0f);
+    }
+
+    @Test
+    public void recorderSnapshotsDevicesAtOldestEntry() {
+        final ManualClock clock = new ManualClock();
+        final EventTraceRecorder recorder = new EventTraceRecorder(3, clock);
+        recorder.connected("a");
+        clock.millis = 10;
+        recorder.device("a", Collections.singletonMap(STREAM_MUSIC, 0.5f));
+        clock.millis = 20;
+        recorder.connected("a");
+        clock.millis = 30;
+        recorder.device("a", Collections.singletonMap(STREAM_MUSIC, 1f));
+        clock.millis = 40;
+        recorder.disconnected("a");
+        clock.millis = 50;
+        recorder.volumeChanged(STREAM_MUSIC, 4);
+
+        final EventTrace trace = recorder.getTrace();
+        assertEquals(3, trace.getEntries().size());
+        assertEquals(0.5f, trace.getDevices().get(0).getVolumes().get(STREAM_MUSIC), 0f);
+    }
+
+    private TraceReplayer.Report replay(String name) throws Exception {
+        final EventTrace trace;
+        try (Reader reader = open(name)) {
+            trace = EventTrace.read(reader);
+        }
+        final TraceReplayer.Report report = replayer.replay(trace);
+        assertTrue(report.toString(), report.getThroughput() > 0);
+        return report;
+    }
+
+    private static Reader open(String name) {
+        final InputStream stream = EventTraceReplayTest.class.getResourceAsStream("/traces/" + name);
+        if (stream == null) throw new IllegalArgumentException("Missing trace: " + name);
+        return new InputStreamReader(stream, StandardCharsets.UTF_8);
+    }
+
+    private static class ManualClock implements Clock {
+        long millis = 0;
+
+        @Override
+        public long nanoTime() {
+            return TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return millis;
+        }
+    }
+
+        private static void assertVolume(TraceReplayer.Report report, String address, AudioStream.Id id, int volume) {
+        assertEquals((float) volume / MAX_VOLUME, report.devices.get(address).get(id), 0.001f);
+    }
+}
@@ -0,0 +1,91 @@
+package eu.darken.bluemusic.main.core.trace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import eu.darken.bluemusic.main.core.audio.AudioStream;
+
+/**
+ * Generates traces for many paired devices, the first few of which are managed.
+ * Devices connect in storms, some of them drop again right away, then the user changes the music volume.
+ * The same seed gives the same trace.
+ */
+class LoadGenerator {
+    private static final long STORM_INTERVAL_MS = 20_000;
+    private static final long CONNECT_WINDOW_MS = 1_000;
+    private static final long DROP_WINDOW_MS = 6_000;
+    private static final float DROP_CHANCE = 0.3f;
+
+    private final int paired;
+    private final int managed;
+    private final Random random;
+    private final Set<String> connected = new LinkedHashSet<>();
+
+    LoadGenerator(int paired, int managed, long seed) {
+        if (managed > paired) throw new IllegalArgumentException("Can't manage more devices than are paired");
+        this.paired = paired;
+        this.managed = managed;
+        this.random = new Random(seed);
+    }
+
+    static String getAddress(int index) {
+        return String.format(Locale.US, "00:00:00:00:%02X:%02X", index >> 8, index & 0xFF);
+    }
+
+    /**
+     * @param stormSize how many devices try to connect per storm, capped at those that aren't connected yet
+     */
+    EventTrace generate(int storms, int stormSize) {
+        final List<EventTrace.Device> devices = new ArrayList<>(managed);
+        for (int i = 0; i < managed; i++) {
+            final Map<AudioStream.Id, Float> volumes = new EnumMap<>(AudioStream.Id.class);
+            volumes.put(AudioStream.Id.STREAM_MUSIC, (1 + random.nextInt(15)) / 15f);
+            if (random.nextBoolean()) volumes.put(AudioStream.Id.STREAM_BLUETOOTH_HANDSFREE, (1 + random.nextInt(15)) / 15f);
+            devices.add(new EventTrace.Device(getAddress(i), volumes));
+        }
+
+        final List<EventTrace.Entry> entries = new ArrayList<>();
+        for (int storm = 0; storm < storms; storm++) {
+            final long start = storm * STORM_INTERVAL_MS;
+
+            final List<String> candidates = new ArrayList<>();
+            for (int i = 0; i < paired; i++) {
+                if (!connected.contains(getAddress(i))) candidates.add(getAddress(i));
+            }
+            Collections.shuffle(candidates, random);
+            for (String address : candidates.subList(0, Math.min(stormSize, candidates.size()))) {
+                final long connectTime = start + random.nextInt((int) CONNECT_WINDOW_MS);
+                entries.add(EventTrace.Entry.connect(connectTime, address));
+                if (random.nextFloat() < DROP_CHANCE) {
+                    entries.add(EventTrace.Entry.disconnect(connectTime + 1 + random.nextInt((int) DROP_WINDOW_MS), address));
+                } else {
+                    connected.add(address);
+                }
+            }
+
+            long time = start + CONNECT_WINDOW_MS + DROP_WINDOW_MS + 4_000;
+            for (int i = 0; i < 3; i++) {
+                entries.add(EventTrace.Entry.volume(time, AudioStream.Id.STREAM_MUSIC, random.nextInt(16)));
+                time += 100;
+            }
+        }
+        // Stable, so a device's connect stays before its disconnect
+        entries.sort(Comparator.comparingLong(EventTrace.Entry::getTimeMillis));
+        return new EventTrace(devices, entries);
+    }
+
+    /**
+     * Paired devices that are connected at the end of the generated trace.
+     */
+    Set<String> getConnected() {
+        return connected;
+    }
+}
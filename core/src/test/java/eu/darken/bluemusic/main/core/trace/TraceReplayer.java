@@ -0,0 +1,388 @@
+package eu.darken.bluemusic.main.core.trace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.darken.bluemusic.main.core.audio.AudioBackend;
+import eu.darken.bluemusic.main.core.audio.AudioStream;
+import eu.darken.bluemusic.main.core.audio.StreamHelper;
+import eu.darken.bluemusic.main.core.port.Clock;
+import eu.darken.bluemusic.main.core.port.VolumeDevice;
+import eu.darken.bluemusic.main.core.service.VolumeDispatcher;
+import eu.darken.bluemusic.main.core.service.modules.ModulePlan;
+import eu.darken.bluemusic.main.core.service.modules.ModuleStageExecutor;
+import eu.darken.bluemusic.main.core.service.modules.VolumeModule;
+import eu.darken.bluemusic.main.core.service.modules.events.VolumeRestorer;
+import eu.darken.bluemusic.main.core.service.modules.volume.VolumeUpdater;
+import io.reactivex.rxjava3.core.Completable;
+import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
+
+/**
+ * Replays an {@link EventTrace} through the core volume pipeline, against an in-memory audio backend and device store.
+ * <p>
+ * Connects restore the device's stored volumes after the reaction delay through the {@link VolumeRestorer} of the volume
+ * modules, unless the device disconnected in between. Volume changes that differ from the current volume are applied like a user would,
+ * and reach the {@link VolumeDispatcher} just like our own changes do. Its only module hands them to the app's
+ * {@link VolumeUpdater}, like the app's VolumeUpdateModule does. Time is virtual, so a trace replays as fast as the pipeline
+ * allows and gives the same result every time. After each event the pipeline is waited on until it's idle.
+ * <p>
+ * Only devices with a {@code device} line are managed, events of other devices are dropped like the receiver does.
+ */
+class TraceReplayer {
+    static final int MAX_VOLUME = 15;
+    static final int INITIAL_VOLUME = 5;
+    private static final long IDLE_TIMEOUT_MS = 10_000;
+
+    private final long reactionDelayMillis;
+    private final VirtualClock clock = new VirtualClock();
+    private final InMemoryAudioBackend audio = new InMemoryAudioBackend();
+    private final StreamHelper streamHelper = new StreamHelper(audio);
+    private final VolumeRestorer restorer = new VolumeRestorer(streamHelper);
+    private final VolumeUpdater updater = new VolumeUpdater(streamHelper);
+    // Stands in for the database, devices are only modified by the pipeline or while it's idle
+    private final Map<String, ReplayDevice> devices = new ConcurrentHashMap<>();
+    private final Map<String, Long> pendingRestores = new LinkedHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private int ignored = 0;
+    private final ModuleStageExecutor<VolumeModule> volumeExecutor;
+    private final VolumeDispatcher dispatcher;
+    private int restores = 0;
+
+    TraceReplayer(long reactionDelayMillis) {
+        this.reactionDelayMillis = reactionDelayMillis;
+        final List<VolumeModule> modules = Collections.singletonList(new VolumeModule() {
+            @Override
+            public void handle(AudioStream.Id id, int volume) {
+                updater.update(id, volume, devices.values());
+            }
+        });
+        volumeExecutor = new ModuleStageExecutor<>(ModulePlan.Companion.build(modules, module -> module.getPriority()), "Replay", 1, clock);
+        dispatcher = new VolumeDispatcher((id, volume) -> Completable
+                .defer(() -> {
+                    inFlight.incrementAndGet();
+                    return volumeExecutor.execute(module -> {
+                        module.handle(id, volume);
+                        return Unit.INSTANCE;
+                    });
+                })
+                .doFinally(inFlight::decrementAndGet));
+        // Like VolumeObserver, only actual changes are reported
+        audio.listener = (streamId, volume) -> dispatcher.submit(streamId, volume);
+    }
+
+    Report replay(EventTrace trace) throws TimeoutException {
+        for (EventTrace.Device device : trace.getDevices()) {
+            devices.put(device.getAddress(), new ReplayDevice(device.getAddress(), device.getVolumes()));
+        }
+
+        final List<EventTrace.Entry> entries = trace.getEntries();
+        final long[] latencies = new long[entries.size()];
+        final long start = System.nanoTime();
+        int next = 0;
+        while (next < entries.size() || !pendingRestores.isEmpty()) {
+            final String dueAddress = nextRestore();
+            final long dueTime = dueAddress != null ? pendingRestores.get(dueAddress) : Long.MAX_VALUE;
+            if (next < entries.size() && entries.get(next).getTimeMillis() <= dueTime) {
+                final EventTrace.Entry entry = entries.get(next);
+                clock.millis = entry.getTimeMillis();
+                final long entryStart = System.nanoTime();
+                apply(entry);
+                awaitIdle();
+                latencies[next++] = System.nanoTime() - entryStart;
+            } else {
+                clock.millis = dueTime;
+                pendingRestores.remove(dueAddress);
+                restore(dueAddress);
+                awaitIdle();
+            }
+        }
+        final long duration = System.nanoTime() - start;
+
+        final Map<AudioStream.Id, Integer> volumes = new EnumMap<>(AudioStream.Id.class);
+        for (AudioStream.Id id : AudioStream.Id.values()) volumes.put(id, streamHelper.getCurrentVolume(id));
+        final Map<String, Map<AudioStream.Id, Float>> stored = new LinkedHashMap<>();
+        final Set<String> connected = new LinkedHashSet<>();
+        for (ReplayDevice device : devices.values()) {
+            stored.put(device.getAddress(), device.getStoredVolumes());
+            if (device.isActive()) connected.add(device.getAddress());
+        }
+        return new Report(entries.size(), duration, latencies, volumes, stored, connected, restores,
+                dispatcher.getReceivedCount(), dispatcher.getDispatchedCount(), ignored);
+    }
+
+    void shutdown() {
+        dispatcher.shutdown();
+        volumeExecutor.shutdown();
+    }
+
+    private void apply(EventTrace.Entry entry) {
+        if (entry.getAddress() != null && !devices.containsKey(entry.getAddress())) {
+            ignored++;
+            return;
+        }
+        switch (entry.getType()) {
+            case CONNECT:
+                devices.get(entry.getAddress()).active = true;
+                pendingRestores.put(entry.getAddress(), entry.getTimeMillis() + reactionDelayMillis);
+                break;
+            case DISCONNECT:
+                devices.get(entry.getAddress()).active = false;
+                // Like disposing the on-going connection in the service
+                pendingRestores.remove(entry.getAddress());
+                break;
+            case VOLUME:
+                audio.setByUser(entry.getStreamId(), entry.getVolume());
+                break;
+        }
+    }
+
+    private String nextRestore() {
+        String address = null;
+        long dueTime = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> entry : pendingRestores.entrySet()) {
+            if (entry.getValue() < dueTime) {
+                address = entry.getKey();
+                dueTime = entry.getValue();
+            }
+        }
+        return address;
+    }
+
+    private void restore(String address) {
+        restores++;
+        final ReplayDevice device = devices.get(address);
+        // Like the volume modules on connect, one per type
+        for (AudioStream.Type type : AudioStream.Type.values()) {
+            restorer.restore(device, type, false, 0).blockingAwait();
+        }
+    }
+
+    private void awaitIdle() throws TimeoutException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT_MS);
+        while (inFlight.get() > 0) {
+            if (System.nanoTime() > deadline) throw new TimeoutException("Pipeline didn't become idle.");
+            Thread.onSpinWait();
+        }
+    }
+
+    static class Report {
+        final int events;
+        final long durationNanos;
+        final long[] latencies;
+        final Map<AudioStream.Id, Integer> volumes;
+        final Map<String, Map<AudioStream.Id, Float>> devices;
+        final Set<String> connected;
+        final int restores;
+        final long volumeChanges;
+        final long volumeDispatches;
+        final int ignored;
+
+        Report(int events, long durationNanos, long[] latencies, Map<AudioStream.Id, Integer> volumes,
+               Map<String, Map<AudioStream.Id, Float>> devices, Set<String> connected, int restores,
+               long volumeChanges, long volumeDispatches, int ignored) {
+            this.events = events;
+            this.durationNanos = durationNanos;
+            this.latencies = latencies;
+            this.volumes = volumes;
+            this.devices = devices;
+            this.connected = connected;
+            this.restores = restores;
+            this.volumeChanges = volumeChanges;
+            this.volumeDispatches = volumeDispatches;
+            this.ignored = ignored;
+        }
+
+        double getThroughput() {
+            return events / (durationNanos / 1_000_000_000d);
+        }
+
+        /**
+         * Nearest rank.
+         */
+        long getLatencyPercentile(int percentile) {
+            if (latencies.length == 0) return 0;
+            final long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            final int index = (int) Math.ceil(percentile / 100d * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+
+        @Override
+        public String toString() {
+            final List<String> lines = new ArrayList<>();
+            lines.add(String.format(Locale.US, "%d events in %.1fms, %.0f events/s, latency p50=%.3fms p99=%.3fms",
+                    events, durationNanos / 1_000_000d, getThroughput(),
+                    getLatencyPercentile(50) / 1_000_000d, getLatencyPercentile(99) / 1_000_000d));
+            lines.add(String.format(Locale.US, "%d restores, %d volume changes, %d dispatched, %d unmanaged events",
+                    restores, volumeChanges, volumeDispatches, ignored));
+            lines.add("Volumes: " + volumes);
+            lines.add("Connected: " + connected);
+            return String.join("\n", lines);
+        }
+    }
+
+    /**
+     * Maps the stream types like a Bluetooth device, calls go to the handsfree stream unless the trace has voice call volumes.
+     */
+    private static class ReplayDevice implements VolumeDevice {
+        private final String address;
+        private final Map<AudioStream.Type, AudioStream.Id> streamIds = new EnumMap<>(AudioStream.Type.class);
+        private final Map<AudioStream.Type, Float> volumes = new ConcurrentHashMap<>();
+        volatile boolean active;
+
+        ReplayDevice(String address, Map<AudioStream.Id, Float> stored) {
+            this.address = address;
+            streamIds.put(AudioStream.Type.MUSIC, AudioStream.Id.STREAM_MUSIC);
+            streamIds.put(AudioStream.Type.CALL, stored.containsKey(AudioStream.Id.STREAM_VOICE_CALL) ? AudioStream.Id.STREAM_VOICE_CALL : AudioStream.Id.STREAM_BLUETOOTH_HANDSFREE);
+            streamIds.put(AudioStream.Type.RINGTONE, AudioStream.Id.STREAM_RINGTONE);
+            streamIds.put(AudioStream.Type.NOTIFICATION, AudioStream.Id.STREAM_NOTIFICATION);
+            streamIds.put(AudioStream.Type.ALARM, AudioStream.Id.STREAM_ALARM);
+            for (Map.Entry<AudioStream.Type, AudioStream.Id> entry : streamIds.entrySet()) {
+                final Float volume = stored.get(entry.getValue());
+                if (volume != null) volumes.put(entry.getKey(), volume);
+            }
+        }
+
+        Map<AudioStream.Id, Float> getStoredVolumes() {
+            final Map<AudioStream.Id, Float> stored = new EnumMap<>(AudioStream.Id.class);
+            for (Map.Entry<AudioStream.Type, Float> entry : volumes.entrySet()) stored.put(streamIds.get(entry.getKey()), entry.getValue());
+            return stored;
+        }
+
+        @Override
+        public String getAddress() {
+            return address;
+        }
+
+        @Override
+        public boolean isActive() {
+            return active;
+        }
+
+        @Override
+        public boolean getVolumeLock() {
+            return false;
+        }
+
+        @Override
+        public boolean getNudgeVolume() {
+            return false;
+        }
+
+        @Override
+        public Long getAdjustmentDelay() {
+            // Ramps run on real time
+            return 0L;
+        }
+
+        @Override
+        public Float getVolume(AudioStream.Type type) {
+            return volumes.get(type);
+        }
+
+        @Override
+        public void setVolume(AudioStream.Type type, Float volume) {
+            if (volume != null) volumes.put(type, volume);
+            else volumes.remove(type);
+        }
+
+        @Override
+        public boolean hasVolume(AudioStream.Type type) {
+            return volumes.containsKey(type);
+        }
+
+        @Override
+        public AudioStream.Id getStreamId(AudioStream.Type type) {
+            return streamIds.get(type);
+        }
+
+        @Override
+        public AudioStream.Type getStreamType(AudioStream.Id id) {
+            for (Map.Entry<AudioStream.Type, AudioStream.Id> entry : streamIds.entrySet()) {
+                if (entry.getValue() == id) return entry.getKey();
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "ReplayDevice(" + address + ")";
+        }
+    }
+
+    private static class VirtualClock implements Clock {
+        volatile long millis = 0;
+
+        @Override
+        public long nanoTime() {
+            return TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return millis;
+        }
+    }
+
+    private static class InMemoryAudioBackend implements AudioBackend {
+        interface Listener {
+            void onVolumeChanged(AudioStream.Id streamId, int volume);
+        }
+
+        private final Map<Integer, AudioStream.Id> ids = new LinkedHashMap<>();
+        private final int[] volumes;
+        Listener listener;
+
+        InMemoryAudioBackend() {
+            int maxType = 0;
+            for (AudioStream.Id id : AudioStream.Id.values()) {
+                ids.put(id.getId(), id);
+                maxType = Math.max(maxType, id.getId());
+            }
+            volumes = new int[maxType + 1];
+            Arrays.fill(volumes, INITIAL_VOLUME);
+        }
+
+        void setByUser(AudioStream.Id id, int volume) {
+            setStreamVolume(id.getId(), volume, 0);
+        }
+
+        @Override
+        public synchronized int getStreamVolume(int streamType) {
+            return volumes[streamType];
+        }
+
+        @Override
+        public int getStreamMaxVolume(int streamType) {
+            return MAX_VOLUME;
+        }
+
+        @Override
+        public void setStreamVolume(int streamType, int index, int flags) {
+            final int clamped = Math.max(0, Math.min(MAX_VOLUME, index));
+            synchronized (this) {
+                if (volumes[streamType] == clamped) return;
+                volumes[streamType] = clamped;
+            }
+            listener.onVolumeChanged(ids.get(streamType), clamped);
+        }
+
+        @Override
+        public void setRouteChangeListener(Function0<Unit> listener) {
+
+        }
+    }
+}